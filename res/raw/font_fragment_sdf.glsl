@@ -0,0 +1,30 @@
+uniform sampler2D u_Texture;           // The distance field atlas, 0.5 on the glyph edge.
+precision mediump float;            // Set the default precision to medium. We don't need as high of a precision in the fragment shader.
+uniform float u_Smoothing;          // Half width of the antialiased edge, in distance units (about one screen pixel).
+uniform vec4 u_OutlineColor;        // Outline drawn outside the edge, alpha 0 for none.
+uniform float u_OutlineWidth;       // Outline width, in distance units.
+uniform vec4 u_GlowColor;           // Glow fading out beyond the outline, alpha 0 for none.
+uniform float u_GlowWidth;          // Glow width, in distance units.
+varying vec4 v_Color;
+varying vec2 v_TexCoordinate;   // Interpolated texture coordinate per fragment.
+
+void main()                         // The entry point for our fragment shader.
+{
+  float dist = texture2D(u_Texture, v_TexCoordinate).w;
+
+  // coverage of each layer, from the glyph outwards
+  float fill = smoothstep(0.5 - u_Smoothing, 0.5 + u_Smoothing, dist);
+  float outlineEdge = 0.5 - u_OutlineWidth;
+  float outline = smoothstep(outlineEdge - u_Smoothing, outlineEdge + u_Smoothing, dist);
+  float glow = smoothstep(outlineEdge - u_GlowWidth - u_Smoothing, outlineEdge, dist);
+
+  // compose glow, outline and glyph back to front (premultiplied), the text alpha fades all of them
+  vec4 color = vec4(u_GlowColor.rgb, 1.0) * (u_GlowColor.a * glow);
+  vec4 layer = vec4(u_OutlineColor.rgb, 1.0) * (u_OutlineColor.a * outline);
+  color = layer + color * (1.0 - layer.a);
+  layer = vec4(v_Color.rgb, 1.0) * fill;
+  color = layer + color * (1.0 - layer.a);
+
+  // blending expects straight alpha
+  gl_FragColor = vec4(color.rgb / max(color.a, 0.001), color.a * v_Color.a);
+}
@@ -0,0 +1,152 @@
+package ru.omniverse.android.stargreeter;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Font atlases kept on disk between runs, so that a font is rasterized once per install and not on
+ * every start, flip or context loss.
+ * <p/>
+ * An {@link AtlasEntry} holds the metrics, the glyph layout and the alpha pixels of one atlas, keyed by
+ * the hash of the font file and every rasterize() argument. A cached atlas is read with a memory-mapped
+ * file: its pixels are a direct buffer the texture upload reads from, without a Bitmap or a copy on the heap.
+ * <p/>
+ * Entries are written to a temporary file and renamed, so the prefetch thread and the GL thread may
+ * store the same atlas at once. Only the {@link #MAX_ENTRIES} most recently written entries are kept.
+ */
+class AtlasCache {
+
+    public static final int MAX_ENTRIES = 32;
+
+    private final File mDir;
+
+    public int hits;                        // atlases read from disk
+    public int misses;                      // atlases not on disk
+    public int stores;                      // atlases written
+
+    public AtlasCache(File dir) {
+        mDir = dir;
+    }
+
+    //--Load--//
+    // D: read a cached atlas, its pixels are mapped from the file
+    // A: key - from AtlasEntry.key()
+    //    name, size, text, flags - the arguments of FontAtlas.rasterize() the key was built from
+    // R: the atlas with mapped pixels, or null if it is not cached or unreadable; a corrupt entry is deleted
+    public synchronized FontAtlas load(String key, String name, int size, CharSequence text, int flags) {
+        final File file = file(key);
+        if (!file.exists()) {
+            misses++;
+            return null;
+        }
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            final FileChannel channel = in.getChannel();
+            final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final FontAtlas atlas = AtlasEntry.read(map, key, name, size, text.toString(), flags);
+            if (atlas == null) {
+                Log.w(Utils.TAG, "Stale font atlas cache entry " + file);
+                misses++;
+                return null;
+            }
+            hits++;
+            return atlas;
+        } catch (IOException e) {
+            Log.w(Utils.TAG, "Can not read font atlas cache entry " + file, e);
+            misses++;
+            return null;
+        } catch (RuntimeException e) {
+            // truncated or garbled, e.g. by a crash while the file system was renaming it. the mapping stays
+            // valid after the delete
+            Log.w(Utils.TAG, "Broken font atlas cache entry " + file, e);
+            misses++;
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    //--Store--//
+    // D: write a rasterized atlas, failures are only logged
+    // A: key - from AtlasEntry.key()
+    //    atlas - the atlas from FontAtlas.rasterize()
+    // R: [none]
+    public void store(String key, FontAtlas atlas) {
+        final File file = file(key);
+        final File temp = new File(mDir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            if (!mDir.isDirectory() && !mDir.mkdirs())
+                throw new IOException("Can not create " + mDir);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            AtlasEntry.write(out, key, atlas);
+            out.close();
+            out = null;
+
+            synchronized (this) {
+                if (!temp.renameTo(file))
+                    throw new IOException("Can not rename " + temp);
+                stores++;
+                prune();
+            }
+        } catch (IOException e) {
+            Log.w(Utils.TAG, "Can not write font atlas cache entry " + file, e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    // Deletes the oldest entries above MAX_ENTRIES
+    private void prune() {
+        final File[] files = mDir.listFiles();
+        if (files == null || files.length <= MAX_ENTRIES)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                final long diff = b.lastModified() - a.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (int i = MAX_ENTRIES; i < files.length; i++) {
+            //noinspection ResultOfMethodCallIgnored
+            files[i].delete();
+        }
+    }
+
+    private File file(String key) {
+        return new File(mDir, "atlas-" + AtlasEntry.FORMAT_VERSION + "-" + AtlasEntry.hash(key.getBytes()) + ".bin");
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // nothing left to do
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AtlasCache{hits=" + hits + ", misses=" + misses + ", stores=" + stores + '}';
+    }
+}
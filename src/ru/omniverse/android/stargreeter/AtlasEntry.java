@@ -0,0 +1,178 @@
+package ru.omniverse.android.stargreeter;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The stored form of a {@link FontAtlas}: its key, its metrics, its glyph layout and its alpha pixels.
+ * Entries are the files of the {@link AtlasCache} and the atlases baked into a {@link DeckBundle} by the
+ * DeckCompiler, which writes them with this class.
+ * <p/>
+ * Layout, big endian:
+ * <pre>
+ * int MAGIC, int FORMAT_VERSION, int key length, key chars
+ * int padX, int padY
+ * float fontHeight, fontAscent, fontDescent, charWidthMax, charHeight, fillRatio
+ * int textureWidth, int textureHeight
+ * int glyph count, per glyph: char, float width, short x, y, width, height, float centerX, centerY
+ * byte per texel
+ * </pre>
+ */
+final class AtlasEntry {
+
+    // bump when the layout or the rasterization changes, older entries are never read again
+    public static final int FORMAT_VERSION = 2;
+    private static final int MAGIC = 0x41544C53;        // "ATLS"
+    // a glyph record: char, advance, region x, y, width, height, center x, y
+    private static final int GLYPH_BYTES = 2 + 4 + 4 * 2 + 2 * 4;
+
+    private AtlasEntry() {
+    }
+
+    //--Key--//
+    // D: identify an atlas
+    // A: fontHash - hash() of the font file
+    //    name, size, padX, padY, text, flags - the arguments of FontAtlas.rasterize()
+    // R: the key of the entry
+    public static String key(String fontHash, String name, int size, int padX, int padY, CharSequence text,
+                             int flags) {
+        return fontHash + '/' + name + '/' + size + '/' + padX + '/' + padY + '/' + flags + '/' + text;
+    }
+
+    //--Read--//
+    // D: read an entry, its pixels are a slice of the buffer
+    // A: buffer - the entry, from its position to its limit
+    //    key - from key()
+    //    name, size, text, flags - the arguments of FontAtlas.rasterize() the key was built from
+    // R: the atlas, or null if the entry is stale or for another key
+    // throws BufferUnderflowException for a truncated entry, or one with a count larger than the bytes left
+    public static FontAtlas read(ByteBuffer buffer, String key, String name, int size, String text, int flags) {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+            return null;
+        if (!key.equals(DeckFormat.getString(buffer)))
+            return null;
+
+        final FontAtlas atlas = new FontAtlas(name, size, text, flags, buffer.getInt(), buffer.getInt());
+        atlas.fontHeight = buffer.getFloat();
+        atlas.fontAscent = buffer.getFloat();
+        atlas.fontDescent = buffer.getFloat();
+        atlas.charWidthMax = buffer.getFloat();
+        atlas.charHeight = buffer.getFloat();
+        atlas.fillRatio = buffer.getFloat();
+        final int textureWidth = buffer.getInt();
+        final int textureHeight = buffer.getInt();
+        atlas.textureWidth = textureWidth;
+        atlas.textureHeight = textureHeight;
+
+        final int glyphCnt = DeckFormat.getCount(buffer, GLYPH_BYTES);
+        final GlyphTable glyphs = new GlyphTable(buffer.getChar());
+        atlas.charWidths = new float[glyphCnt];
+        atlas.glyphWidths = new int[glyphCnt];
+        atlas.glyphHeights = new int[glyphCnt];
+        atlas.glyphCenterX = new float[glyphCnt];
+        atlas.glyphCenterY = new float[glyphCnt];
+        atlas.charRgn = new TextureRegion[glyphCnt];
+        for (int g = 0; g < glyphCnt; g++) {
+            if (g > 0)
+                glyphs.add(buffer.getChar());
+            atlas.charWidths[g] = buffer.getFloat();
+            final int x = buffer.getShort(), y = buffer.getShort();
+            atlas.glyphWidths[g] = buffer.getShort();
+            atlas.glyphHeights[g] = buffer.getShort();
+            atlas.glyphCenterX[g] = buffer.getFloat();
+            atlas.glyphCenterY[g] = buffer.getFloat();
+            atlas.charRgn[g] = new TextureRegion(textureWidth, textureHeight, x, y,
+                    atlas.glyphWidths[g], atlas.glyphHeights[g]);
+        }
+        if (glyphs.size() != glyphCnt)
+            return null;
+        atlas.glyphs = glyphs;
+
+        if (buffer.remaining() != textureWidth * textureHeight)
+            return null;
+        atlas.pixels = buffer.slice();
+        return atlas;
+    }
+
+    //--Write--//
+    // D: write an entry
+    // A: out - where to
+    //    key - from key()
+    //    atlas - the atlas from FontAtlas.rasterize()
+    // R: [none]
+    public static void write(DataOutput out, String key, FontAtlas atlas) throws IOException {
+        final byte[] pixels = new byte[atlas.textureWidth * atlas.textureHeight];
+        final ByteBuffer source = atlas.pixels.duplicate();
+        source.rewind();
+        source.get(pixels);
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        DeckFormat.writeString(out, key);
+        out.writeInt(atlas.fontPadX);
+        out.writeInt(atlas.fontPadY);
+        out.writeFloat(atlas.fontHeight);
+        out.writeFloat(atlas.fontAscent);
+        out.writeFloat(atlas.fontDescent);
+        out.writeFloat(atlas.charWidthMax);
+        out.writeFloat(atlas.charHeight);
+        out.writeFloat(atlas.fillRatio);
+        out.writeInt(atlas.textureWidth);
+        out.writeInt(atlas.textureHeight);
+
+        final int glyphCnt = atlas.glyphs.size();
+        out.writeInt(glyphCnt);
+        for (int g = 0; g < glyphCnt; g++) {
+            out.writeChar(atlas.glyphs.charAt(g));
+            out.writeFloat(atlas.charWidths[g]);
+            // regions are whole texels of a power of two texture, so this is exact
+            out.writeShort(Math.round(atlas.charRgn[g].u1 * atlas.textureWidth));
+            out.writeShort(Math.round(atlas.charRgn[g].v1 * atlas.textureHeight));
+            out.writeShort(atlas.glyphWidths[g]);
+            out.writeShort(atlas.glyphHeights[g]);
+            out.writeFloat(atlas.glyphCenterX[g]);
+            out.writeFloat(atlas.glyphCenterY[g]);
+        }
+        out.write(pixels);
+    }
+
+    // Hex MD5 of some bytes
+    public static String hash(byte[] bytes) {
+        return toHex(md5().digest(bytes));
+    }
+
+    // Hex MD5 of a stream, which is closed
+    public static String hash(InputStream in) throws IOException {
+        final MessageDigest digest = md5();
+        try {
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package ru.omniverse.android.stargreeter;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Rasterizes the font atlases of upcoming slides on a background thread, so a slide flip only has
+ * to upload ready pixels instead of drawing every glyph with Canvas on the GL thread.
+ * <p/>
+ * All methods are called on the GL thread; only {@link ResourceLoader#loadFontAtlas} runs on the worker,
+ * which reads the atlas from the disk cache or rasterizes it.
+ */
+class AtlasPrefetcher {
+
+    // number of upcoming slides to prepare
+    public static final int LOOKAHEAD = 2;
+
+    private final ResourceLoader mResourceLoader;
+    private final int mPadX, mPadY;
+    private final int mFlags;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AtlasPrefetcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);    // keep the GL and UI threads smooth
+            return thread;
+        }
+    });
+    // slides compare by identity
+    private final Map<Slide, Future<FontAtlas>> mPending = new HashMap<Slide, Future<FontAtlas>>();
+
+    public int requested;                   // atlases submitted for rasterization
+    public int taken;                       // prefetched atlases used at a flip
+    public int discarded;                   // prefetched atlases nobody needed
+
+    // padX, padY, flags - atlas settings, the same as those of the font pool
+    public AtlasPrefetcher(ResourceLoader resourceLoader, int padX, int padY, int flags) {
+        mResourceLoader = resourceLoader;
+        mPadX = padX;
+        mPadY = padY;
+        mFlags = flags;
+    }
+
+    //--Prefetch--//
+    // D: keep exactly the given slides prepared: start rasterizing those not pending yet and drop
+    //    the atlases of slides that are no longer upcoming
+    // A: slides - the upcoming slides that need an atlas, with the characters to load for each
+    // R: [none]
+    public void prefetch(Map<Slide, String> slides) {
+        for (Slide slide : new ArrayList<Slide>(mPending.keySet())) {
+            if (!slides.containsKey(slide))
+                discard(mPending.remove(slide));
+        }
+
+        for (final Map.Entry<Slide, String> entry : slides.entrySet()) {
+            final Slide slide = entry.getKey();
+            if (mPending.containsKey(slide))
+                continue;
+            mPending.put(slide, mExecutor.submit(new Callable<FontAtlas>() {
+                @Override
+                public FontAtlas call() {
+                    return mResourceLoader.loadFontAtlas(slide.getFontName(),
+                            FontAtlas.atlasSize(slide.getFontSize(), mFlags), mPadX, mPadY, entry.getValue(), mFlags);
+                }
+            }));
+            requested++;
+        }
+    }
+
+    //--Take--//
+    // D: return the atlas prepared for a slide, waiting for it if it is still being rasterized
+    // A: slide - the slide about to be shown
+    // R: the atlas, or null if the slide was not prefetched or rasterizing failed
+    public FontAtlas take(Slide slide) {
+        final Future<FontAtlas> future = mPending.remove(slide);
+        if (future == null)
+            return null;
+        try {
+            final FontAtlas atlas = future.get();
+            if (atlas != null)
+                taken++;
+            return atlas;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(Utils.TAG, "Prefetching the font of " + slide + " failed", e.getCause());
+            return null;
+        }
+    }
+
+    private void discard(Future<FontAtlas> future) {
+        discarded++;
+        // an atlas already done or running is left to the garbage collector
+        future.cancel(false);
+    }
+
+    // Drops every pending atlas
+    public void clear() {
+        prefetch(Collections.<Slide, String>emptyMap());
+    }
+
+    @Override
+    public String toString() {
+        return "AtlasPrefetcher{pending=" + mPending.size() + ", requested=" + requested + ", taken=" + taken
+                + ", discarded=" + discarded + '}';
+    }
+}
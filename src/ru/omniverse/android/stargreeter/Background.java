@@ -1,151 +1,119 @@
 package ru.omniverse.android.stargreeter;
 
-import android.graphics.Bitmap;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
-import android.util.Log;
-
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 
 @SuppressWarnings("FieldCanBeLocal")
 class Background {
 
-    private final FloatBuffer vertexBuffer;
-    private final ShortBuffer drawListBuffer;
-    private FloatBuffer textureBuffer;
+    private final GLState mState;
+    private final Vertices vertices;
 
-    private final int mProgram;
-    private int mPositionHandle;
+    private final ShaderProgram mProgram;
     private int mTextureUniformHandle;
-    private int mTextureCoordinateHandle;
     private int mScaleHandle;
 
     private final int[] textures = new int[1];
 
-    // number of coordinates per vertex in this array
-    private static final int COORDS_PER_VERTEX = 3;
-    private static final int TEX_PER_VERTEX = 2;
-    private final float[] squareCoords =
-            {-0.5f, 0.5f, 0.0f,   // top left
-                    -0.5f, -0.5f, 0.0f,   // bottom left
-                    0.5f, -0.5f, 0.0f,   // bottom right
-                    0.5f, 0.5f, 0.0f}; // top right
-    // texture coordinates according square: 01, 00, 10, 11
-    private final float[] textureCoordinates = new float[]{
-            0, 0,
-            0, 1,
-            1, 1,
-            1, 0
-    };
+    // interleaved position and texture coordinates according square: 01, 00, 10, 11
+    private final float[] squareVertices =
+            {-0.5f, 0.5f, 0, 0,   // top left
+                    -0.5f, -0.5f, 0, 1,   // bottom left
+                    0.5f, -0.5f, 1, 1,   // bottom right
+                    0.5f, 0.5f, 1, 0}; // top right
+    private static final int VERTEX_STRIDE = 4;
     private final short drawOrder[] = {0, 1, 2, 0, 2, 3}; // order to draw vertices
     private static final float mScale = 50f;
 
-    public Background(ResourceLoader loader) {
-        // initialize vertex byte buffer for shape coordinates
-        for (int i = 0; i < squareCoords.length; i++) {
-            squareCoords[i] *= mScale;
+    // image - the decoded background, kept by the caller for later contexts
+    // storage - vertex storage, see Vertices.STORAGE_*
+    public Background(ResourceLoader loader, GLState state, TextureImage image, int storage) {
+        mState = state;
+        mProgram = Utils.createShaderProgram(state, loader, R.raw.background_vertex, R.raw.background_fragment,
+                VertexFormat.FLOAT_NO_INDEX.getAttributes());
+
+        // scale positions only
+        for (int i = 0; i < squareVertices.length; i += VERTEX_STRIDE) {
+            squareVertices[i] *= mScale;
+            squareVertices[i + 1] *= mScale;
         }
-        vertexBuffer = Utils.newFloatBuffer(squareCoords);
-
-        // initialize byte buffer for the draw list
-        drawListBuffer = Utils.newShortBuffer(drawOrder);
-
-        loadBackgroundTexture(loader.loadBitmap(R.drawable.background));
-
-        mProgram = Utils.createShaderProgram(loader, R.raw.background_vertex, R.raw.background_fragment,
-                new String[]{"a_Position", "a_TexCoordinate"});
+        vertices = new Vertices(state, mProgram, VertexFormat.FLOAT_NO_INDEX, squareVertices.length / VERTEX_STRIDE,
+                drawOrder.length, storage);
+        vertices.setVertices(squareVertices, 0, squareVertices.length);
+        vertices.setIndices(drawOrder, 0, drawOrder.length);
+
+        loadBackgroundTexture(image);
+
+        mTextureUniformHandle = mProgram.getUniformLocation("u_Texture");
+        mScaleHandle = mProgram.getUniformLocation("u_Scale");
+
+        // uniforms are program state and never change, set them once
+        mState.useProgram(mProgram.handle);
+        // Tell the texture uniform sampler to use texture unit 0.
+        mState.uniform1i(mTextureUniformHandle, 0);
+        mState.uniform1f(mScaleHandle, mScale);
+        mState.checkError();
     }
 
-    private void loadBackgroundTexture(Bitmap bitmap) {
+    private void loadBackgroundTexture(TextureImage image) {
 
-        Log.d(Utils.TAG, "Bitmap " + Utils.bitmapHash(bitmap));
         // Create an int array with the number of textures we want, in this case 1.
         // Tell OpenGL to generate textures.
-        GLES20.glGenTextures(1, textures, 0);
-        Utils.checkGlError();
+        textures[0] = mState.genTexture("background");
+        mState.checkError();
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
-        Utils.checkGlError();
+        mState.bindTexture(0, textures[0]);
+        mState.checkError();
 
         // Scale up if the texture if smaller.
-        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        Utils.checkGlError();
+        mState.texParameter(GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        mState.checkError();
         // scale linearly when image smalled than texture
-        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        Utils.checkGlError();
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_REPEAT);
-        Utils.checkGlError();
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_REPEAT);
-        Utils.checkGlError();
-
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
-        Utils.checkGlError();
+        mState.texParameter(GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        mState.checkError();
+        mState.texParameter(GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_REPEAT);
+        mState.checkError();
+        mState.texParameter(GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_REPEAT);
+        mState.checkError();
 
-        textureBuffer = Utils.newFloatBuffer(textureCoordinates);
-
-        bitmap.recycle();
+        // filled over the next frames, the image is only read
+        mState.uploads.enqueue(textures[0], image);
+        mState.checkError();
 
         if (textures[0] == 0) {
             throw new RuntimeException("Error loading texture.");
         }
     }
 
-    public void draw() {
-        // Add program to OpenGL environment
-        GLES20.glUseProgram(mProgram);
-        Utils.checkGlError();
-
-        // get handle to vertex shader's vPosition member
-        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "a_Position");
-        Utils.checkGlError();
-        mTextureUniformHandle = GLES20.glGetUniformLocation(mProgram, "u_Texture");
-        Utils.checkGlError();
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgram, "a_TexCoordinate");
-        Utils.checkGlError();
-        mScaleHandle = GLES20.glGetUniformLocation(mProgram, "u_Scale");
-        Utils.checkGlError();
-
-        // Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        Utils.checkGlError();
-
-        // Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
-        Utils.checkGlError();
-
-        // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
-        GLES20.glUniform1i(mTextureUniformHandle, 0);
-        Utils.checkGlError();
-
-        // Enable a handle to the triangle vertices
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-        Utils.checkGlError();
-
-        // Prepare the triangle coordinate data
-        GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX,
-                GLES20.GL_FLOAT, false,
-                COORDS_PER_VERTEX * 4, vertexBuffer);
-        Utils.checkGlError();
+    // Whether the texture is filled and the background shows
+    public boolean isUploaded() {
+        return !mState.uploads.isPending(textures[0]);
+    }
 
+    public void draw() {
+        // nothing to show until the texture is filled
+        if (!isUploaded())
+            return;
 
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-        Utils.checkGlError();
+        // Add program to OpenGL environment
+        mState.useProgram(mProgram.handle);
+        mState.checkError();
 
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, TEX_PER_VERTEX,
-                GLES20.GL_FLOAT, false,
-                TEX_PER_VERTEX * 4, textureBuffer);
-        Utils.checkGlError();
+        // Bind the texture to texture unit 0, the sampler reads from it.
+        mState.bindTexture(0, textures[0]);
+        mState.checkError();
 
-        GLES20.glUniform1f(mScaleHandle, mScale);
-        Utils.checkGlError();
+        // Prepare the square coordinate data
+        vertices.bind();
+        mState.checkError();
 
         // Draw the square
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, drawOrder.length,
-                GLES20.GL_UNSIGNED_SHORT, drawListBuffer);
-        Utils.checkGlError();
+        vertices.draw(GLES20.GL_TRIANGLES, 0, drawOrder.length);
+        mState.checkError();
+    }
 
-        // Disable vertex array
-        GLES20.glDisableVertexAttribArray(mPositionHandle);
+    public void release() {
+        vertices.release();
+        mState.deleteTexture(textures[0]);
+        mState.deleteProgram(mProgram.handle);
     }
 }
@@ -0,0 +1,290 @@
+package ru.omniverse.android.stargreeter;
+
+import android.opengl.GLES20;
+import android.util.Log;
+import android.util.Xml;
+import org.xmlpull.v1.XmlPullParser;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import static ru.omniverse.android.stargreeter.Utils.TAG;
+
+/**
+ * Microbenchmarks for hot paths, logged to logcat.
+ * Enabled with {@link Utils#RUN_BENCHMARKS}, never run in a normal build. They take a while, so they run on
+ * a thread of their own.
+ */
+class Benchmarks {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 20;
+
+    // prevents the JIT from dropping the measured loops
+    private static volatile long sink;
+
+    private static final int DECK_SLIDES = 5000;
+    // DOM+XPath slows down faster than the deck grows, about a minute a run at DECK_SLIDES
+    private static final int DOM_DECK_SLIDES = 500;
+    private static final int DECK_ROUNDS = 3;
+
+    // Runs all benchmarks on a background thread, off the UI thread
+    public static void start() {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runAll();
+            }
+        }, "Benchmarks");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static void runAll() {
+        glyphLookup();
+        vertexWriter();
+        deckParsing(DOM_DECK_SLIDES, true);
+        deckParsing(DECK_SLIDES, false);
+    }
+
+    static String longCyrillicSlide() {
+        final String line = "Съешь же ещё этих мягких французских булок, да выпей же чаю\n";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(line);
+        }
+        return sb.toString();
+    }
+
+    // GlyphTable page lookup against the former linear scan of a 256-entry table
+    static void glyphLookup() {
+        final String text = longCyrillicSlide();
+
+        final char[] ansiTable = new char[256];
+        final String cp1251 = GlyphTable.cp1251();
+        for (int i = 32; i < 256; i++) {
+            ansiTable[i] = cp1251.charAt(i - 32);
+        }
+
+        final GlyphTable table = new GlyphTable(FontAtlas.CHAR_NONE);
+        table.addAll(cp1251);
+
+        long linear = 0, paged = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < text.length(); i++) {
+                sum += indexInAnsi(ansiTable, text.charAt(i));
+            }
+            long middle = System.nanoTime();
+            for (int i = 0; i < text.length(); i++) {
+                sum += table.indexOf(text.charAt(i));
+            }
+            long end = System.nanoTime();
+            sink += sum;
+
+            if (round >= WARMUP_ROUNDS) {
+                linear += middle - start;
+                paged += end - middle;
+            }
+        }
+
+        final double lookups = (double) ROUNDS * text.length();
+        Log.d(TAG, String.format("Glyph lookup over %d chars: linear scan %.2f ns/char, page table %.2f ns/char",
+                text.length(), linear / lookups, paged / lookups));
+    }
+
+    private static int indexInAnsi(char[] ansiTable, char c) {
+        for (int q = 0; q < 256; ++q) {
+            if (ansiTable[q] == c) {
+                return q;
+            }
+        }
+        return 0;
+    }
+
+    // One frame of glyph quads: the former float[] -> int[] -> IntBuffer path against
+    // SpriteBatch.putSprite writing straight into the direct vertex buffer, in each vertex format
+    static void vertexWriter() {
+        final int sprites = GLText.TEXT_BATCH_SIZE;
+        final int floats = sprites * SpriteBatch.VERTICES_PER_SPRITE * 5;
+        final TextureRegion region = new TextureRegion(256, 256, 0, 0, 16, 16);
+
+        final float[] array = new float[floats];
+        final int[] tmpBuffer = new int[floats];
+        final IntBuffer intBuffer = ByteBuffer.allocateDirect(floats * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+
+        long copying = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0, index = 0; i < sprites; i++) {
+                index = putSprite(array, index, i, 0, 16, 16, region, 0);
+            }
+            intBuffer.clear();
+            for (int i = 0; i < floats; i++) {
+                tmpBuffer[i] = Float.floatToRawIntBits(array[i]);
+            }
+            intBuffer.put(tmpBuffer, 0, floats);
+            intBuffer.flip();
+            long end = System.nanoTime();
+            sink += intBuffer.get(floats - 1);
+            if (round >= WARMUP_ROUNDS)
+                copying += end - start;
+        }
+        // the old path copies the vertex array twice after writing it
+        Log.d(TAG, String.format("Vertex write of %d sprites: array+copy %.3f ms, %d bytes per frame, %d bytes copied",
+                sprites, copying / 1e6 / ROUNDS, floats * 4, 2 * floats * 4));
+
+        vertexWriter(sprites, region, VertexFormat.FLOAT);
+        vertexWriter(sprites, region, new VertexFormat(GLES20.GL_FLOAT, GLES20.GL_UNSIGNED_SHORT, GLES20.GL_UNSIGNED_BYTE));
+        vertexWriter(sprites, region, new VertexFormat(GLES20.GL_FLOAT, GLES20.GL_UNSIGNED_SHORT, 0));
+        vertexWriter(sprites, region, new VertexFormat(VertexFormat.GL_HALF_FLOAT_OES, GLES20.GL_UNSIGNED_SHORT, 0));
+    }
+
+    private static void vertexWriter(int sprites, TextureRegion region, VertexFormat format) {
+        final int bytes = sprites * SpriteBatch.VERTICES_PER_SPRITE * format.stride;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+
+        long writing = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0, index = 0; i < sprites; i++) {
+                index = SpriteBatch.putSprite(format, buffer, index, i, 0, 16, 16, region, 0, null);
+            }
+            long end = System.nanoTime();
+            sink += buffer.get(bytes - 1);
+            if (round >= WARMUP_ROUNDS)
+                writing += end - start;
+        }
+        Log.d(TAG, String.format("Vertex write of %d sprites: direct writer %.3f ms, %d bytes per frame, 0 bytes copied, %s",
+                sprites, writing / 1e6 / ROUNDS, bytes, format));
+    }
+
+    static byte[] generatedDeck(int slides) {
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<stargreeter>\n"
+                + "    <settings>\n        <slide-time>5</slide-time>\n"
+                + "        <keep-last-slide>false</keep-last-slide>\n        <audio-name>theme.mp3</audio-name>\n"
+                + "    </settings>\n    <beginning>\n        <text>Титры</text>\n"
+                + "        <font size=\"46\" color=\"#ff0000\">FreeSansBold</font>\n    </beginning>\n    <slides>\n");
+        for (int i = 0; i < slides; i++) {
+            sb.append("        <slide>\n            <text>Строка номер ").append(i)
+                    .append("\n                Съешь же ещё этих мягких французских булок\n            </text>\n")
+                    .append("            <font size=\"").append(30 + i % 20).append("\" color=\"")
+                    .append(i % 2 == 0 ? "red" : "#00ff00").append("\">FreeSansBold</font>\n        </slide>\n");
+        }
+        sb.append("    </slides>\n</stargreeter>\n");
+        try {
+            return sb.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // A generated deck read with DOM and XPath against the single pass pull parser, kept and streamed
+    static void deckParsing(final int slides, boolean withDom) {
+        final byte[] deck = generatedDeck(slides);
+        final Runnable dom = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sink += new StarGreeterData(DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                            .parse(new ByteArrayInputStream(deck))).getAllSlides().size();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        final Runnable pull = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final XmlPullParser parser = Xml.newPullParser();
+                    parser.setInput(new ByteArrayInputStream(deck), "UTF-8");
+                    sink += StarGreeterData.parse(parser).getAllSlides().size();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        // a pass of XmlSlideSource: one slide at a time, none kept
+        final Runnable streamed = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final XmlPullParser parser = Xml.newPullParser();
+                    parser.setInput(new ByteArrayInputStream(deck), "UTF-8");
+                    final StarGreeterData.PullReader reader = new StarGreeterData.PullReader(parser);
+                    for (Slide slide = reader.nextSlide(); slide != null; slide = reader.nextSlide()) {
+                        sink += slide.getFontSize();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        if (withDom)
+            Log.d(TAG, String.format("Deck of %d slides, %d KB: DOM+XPath %.1f ms, peak heap %d KB",
+                    slides, deck.length / 1024, time(dom), peakHeap(dom) / 1024));
+        Log.d(TAG, String.format("Deck of %d slides, %d KB: pull parser %.1f ms, peak heap %d KB",
+                slides, deck.length / 1024, time(pull), peakHeap(pull) / 1024));
+        Log.d(TAG, String.format("Deck of %d slides, %d KB: streamed %.1f ms, peak heap %d KB",
+                slides, deck.length / 1024, time(streamed), peakHeap(streamed) / 1024));
+    }
+
+    // Average time of a task after one warmup run (ms)
+    private static double time(Runnable task) {
+        task.run();
+        final long start = System.nanoTime();
+        for (int round = 0; round < DECK_ROUNDS; round++) {
+            task.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / DECK_ROUNDS;
+    }
+
+    // Most heap in use while a task runs above the heap in use before it, sampled every millisecond
+    private static long peakHeap(Runnable task) {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long before = runtime.totalMemory() - runtime.freeMemory();
+        final long[] peak = {before};
+        final Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.interrupted()) {
+                    peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory());
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        sampler.start();
+        task.run();
+        sampler.interrupt();
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory());
+        return peak[0] - before;
+    }
+
+    // the former SpriteBatch.drawSprite body writing into a float[]
+    private static int putSprite(float[] buffer, int index, float x, float y, float width, float height,
+                                 TextureRegion region, int mvpIndex) {
+        float x1 = x - width / 2, y1 = y - height / 2;
+        float x2 = x + width / 2, y2 = y + height / 2;
+        buffer[index++] = x1; buffer[index++] = y1; buffer[index++] = region.u1; buffer[index++] = region.v2; buffer[index++] = mvpIndex;
+        buffer[index++] = x2; buffer[index++] = y1; buffer[index++] = region.u2; buffer[index++] = region.v2; buffer[index++] = mvpIndex;
+        buffer[index++] = x2; buffer[index++] = y2; buffer[index++] = region.u2; buffer[index++] = region.v1; buffer[index++] = mvpIndex;
+        buffer[index++] = x1; buffer[index++] = y2; buffer[index++] = region.u1; buffer[index++] = region.v1; buffer[index++] = mvpIndex;
+        return index;
+    }
+}
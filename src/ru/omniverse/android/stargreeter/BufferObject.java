@@ -0,0 +1,77 @@
+package ru.omniverse.android.stargreeter;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+
+/**
+ * GL buffer object holding vertex or index data on the GPU.
+ * <p/>
+ * A static buffer is respecified on every upload and is meant for data that rarely changes.
+ * A streaming buffer is a ring: uploads are appended after the previous one, and when the ring
+ * is full the storage is orphaned so the driver can hand out fresh memory instead of waiting
+ * for draws that still read the old contents.
+ */
+class BufferObject {
+
+    private final GLState state;
+    private final int target;
+    private final boolean streaming;
+    private final int capacity;
+    private int handle;
+    private int writeOffset;
+
+    // capacity - size of the ring in bytes, ignored for static buffers
+    public BufferObject(GLState state, int target, boolean streaming, int capacity) {
+        this.state = state;
+        this.target = target;
+        this.streaming = streaming;
+        this.capacity = capacity;
+
+        handle = state.genBuffer(target == GLES20.GL_ARRAY_BUFFER ? "vertex buffer" : "index buffer");
+        if (handle == 0) {
+            throw new RuntimeException("Error creating buffer object.");
+        }
+
+        if (streaming) {
+            state.bindBuffer(target, handle);
+            state.bufferData(target, capacity, null, GLES20.GL_STREAM_DRAW);
+        }
+    }
+
+    // Uploads data from the start of the buffer and returns the byte offset it was stored at.
+    // Leaves the buffer bound.
+    public int upload(Buffer data, int bytes) {
+        state.bindBuffer(target, handle);
+
+        if (!streaming) {
+            state.bufferData(target, bytes, data, GLES20.GL_STATIC_DRAW);
+            return 0;
+        }
+
+        if (bytes > capacity) {
+            throw new IllegalArgumentException("Upload of " + bytes + " bytes exceeds ring of " + capacity);
+        }
+        if (writeOffset + bytes > capacity) {
+            // orphan the storage, pending draws keep the old one
+            state.bufferData(target, capacity, null, GLES20.GL_STREAM_DRAW);
+            writeOffset = 0;
+        }
+        final int offset = writeOffset;
+        state.bufferSubData(target, offset, bytes, data);
+        // keep attribute offsets 4-byte aligned
+        writeOffset = (offset + bytes + 3) & ~3;
+        return offset;
+    }
+
+    public void bind() {
+        state.bindBuffer(target, handle);
+    }
+
+    public void release() {
+        if (handle != 0) {
+            state.deleteBuffer(handle);
+            handle = 0;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package ru.omniverse.android.stargreeter;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.graphics.Color;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The deck compiled at build time by the deck-bundle Ant target (tools/src, DeckCompiler): the settings,
+ * the slides with their lines split, and the font atlases of the deck baked as {@link AtlasEntry} entries,
+ * laid out as {@link DeckFormat} describes. With a bundle in the assets, startup reads no XML and the
+ * fonts of the deck are neither measured nor rasterized.
+ * <p/>
+ * The asset is memory-mapped from the package, which stores it uncompressed for its extension, and read
+ * into a direct buffer should it be compressed anyway. Atlas pixels are slices of that buffer.
+ */
+class DeckBundle {
+
+    private final ByteBuffer mBuffer;
+    private final int mDeckStart;
+    private final int mAtlasStart;
+    private final Map<String, int[]> mAtlases = new HashMap<String, int[]>();  // key -> offset, length
+
+    public int hits;                        // atlases read from the bundle
+    public int misses;                      // atlases the bundle does not have
+
+    private DeckBundle(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.getInt() != DeckFormat.MAGIC || buffer.getInt() != DeckFormat.FORMAT_VERSION)
+            throw new IOException("Not a deck bundle of version " + DeckFormat.FORMAT_VERSION);
+        final int atlasCount = buffer.getInt();
+        for (int i = 0; i < atlasCount; i++) {
+            final String key = DeckFormat.getString(buffer);
+            mAtlases.put(key, new int[]{buffer.getInt(), buffer.getInt()});
+        }
+        final int deckLength = buffer.getInt();
+        mDeckStart = buffer.position();
+        mAtlasStart = mDeckStart + deckLength;
+    }
+
+    //--Open--//
+    // D: map the bundle from the assets
+    // A: assets - the asset manager of the application
+    // R: the bundle, or null if the package has none or it is unreadable
+    public static DeckBundle open(AssetManager assets) {
+        try {
+            return new DeckBundle(map(assets));
+        } catch (FileNotFoundException e) {
+            return null;                                // built without a deck
+        } catch (IOException e) {
+            Log.w(Utils.TAG, "Can not read deck bundle " + DeckFormat.ASSET, e);
+            return null;
+        } catch (RuntimeException e) {
+            Log.w(Utils.TAG, "Broken deck bundle " + DeckFormat.ASSET, e);
+            return null;
+        }
+    }
+
+    private static ByteBuffer map(AssetManager assets) throws IOException {
+        AssetFileDescriptor fd = null;
+        try {
+            fd = assets.openFd(DeckFormat.ASSET);
+        } catch (FileNotFoundException e) {
+            // a compressed asset has no descriptor, unless it is missing altogether
+            final InputStream in = assets.open(DeckFormat.ASSET);
+            try {
+                return read(in);
+            } finally {
+                close(in);
+            }
+        }
+        final FileInputStream in = fd.createInputStream();
+        try {
+            final FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+        } finally {
+            close(in);
+            fd.close();
+        }
+    }
+
+    private static ByteBuffer read(InputStream in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(in.available(), 64 * 1024));
+        final byte[] chunk = new byte[8192];
+        int count;
+        while ((count = in.read(chunk)) > 0) {
+            if (buffer.remaining() < count) {
+                final ByteBuffer grown = ByteBuffer.allocateDirect(buffer.capacity() * 2 + count);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            buffer.put(chunk, 0, count);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    //--Get Slide Source--//
+    // D: read the settings, the font texts and the beginning, the other slides are read from the bundle
+    //    pass by pass. the slides are those StarGreeterData.parse() gives for the source deck
+    // A: [none]
+    // R: the deck
+    public SlideSource getSlideSource() {
+        final ByteBuffer deck = mBuffer.duplicate();
+        deck.position(mDeckStart);
+        final int slideTime = deck.getInt();
+        final boolean keepLastSlide = deck.get() != 0;
+        final String audioName = DeckFormat.getString(deck);
+        final DeckFonts fonts = new DeckFonts();
+        final int fontCount = DeckFormat.getCount(deck, 8);
+        for (int i = 0; i < fontCount; i++) {
+            fonts.addText(DeckFormat.getString(deck), DeckFormat.getString(deck));
+        }
+        final int slideCount = deck.getInt();
+        final Slide beginning = getSlide(deck);
+        final int slidesStart = deck.position();
+
+        return new BundleSlideSource(beginning, slideCount, slideTime, keepLastSlide, audioName, fonts,
+                slidesStart);
+    }
+
+    // Slides read from the bundle, each pass from its own view of the buffer
+    private class BundleSlideSource extends SlideSource {
+
+        private final int mSlideCount;          // the beginning included
+        private final DeckFonts mFonts;
+        private final int mSlidesStart;         // the slide after the beginning
+
+        BundleSlideSource(Slide beginning, int slideCount, int slideTime, boolean keepLastSlide, String audioName,
+                          DeckFonts fonts, int slidesStart) {
+            super(beginning, slideTime, keepLastSlide, audioName);
+            mSlideCount = slideCount;
+            mFonts = fonts;
+            mSlidesStart = slidesStart;
+        }
+
+        @Override
+        public DeckFonts getFonts() {
+            return mFonts;
+        }
+
+        @Override
+        public Iterator<Slide> iterator() {
+            final ByteBuffer slides = mBuffer.duplicate();
+            slides.position(mSlidesStart);
+            return new Iterator<Slide>() {
+                private int mNext;
+
+                @Override
+                public boolean hasNext() {
+                    return mNext < mSlideCount;
+                }
+
+                @Override
+                public Slide next() {
+                    if (mNext >= mSlideCount)
+                        throw new NoSuchElementException();
+                    return mNext++ == 0 ? getBeginning() : getSlide(slides);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    private static Slide getSlide(ByteBuffer deck) {
+        final String text = DeckFormat.getString(deck);
+        final String fontName = DeckFormat.getString(deck);
+        final int fontSize = deck.getInt();
+        final int fontColor = Color.parseColor(DeckFormat.getString(deck));
+        final String[] lines = new String[DeckFormat.getCount(deck, 4)];
+        for (int line = 0; line < lines.length; line++) {
+            lines[line] = DeckFormat.getString(deck);
+        }
+        return new Slide(text, lines, fontName, fontSize, fontColor);
+    }
+
+    //--Load Atlas--//
+    // D: read a baked atlas, its pixels are a slice of the bundle. may be called on any thread.
+    // A: key - from AtlasEntry.key()
+    //    name, size, text, flags - the arguments of FontAtlas.rasterize() the key was built from
+    // R: the atlas, or null if the bundle has none for the key
+    public synchronized FontAtlas loadAtlas(String key, String name, int size, CharSequence text, int flags) {
+        final int[] entry = mAtlases.get(key);
+        final FontAtlas atlas;
+        if (entry == null) {
+            atlas = null;
+        } else {
+            final ByteBuffer buffer = mBuffer.duplicate();
+            buffer.position(mAtlasStart + entry[0]);
+            buffer.limit(mAtlasStart + entry[0] + entry[1]);
+            atlas = readAtlas(buffer.slice(), key, name, size, text, flags);
+        }
+        if (atlas == null)
+            misses++;
+        else
+            hits++;
+        return atlas;
+    }
+
+    // An entry of the bundle, null if it is broken; the atlas is then rasterized on the device
+    private static FontAtlas readAtlas(ByteBuffer entry, String key, String name, int size, CharSequence text,
+                                       int flags) {
+        try {
+            return AtlasEntry.read(entry, key, name, size, text.toString(), flags);
+        } catch (RuntimeException e) {
+            Log.w(Utils.TAG, "Broken font atlas in " + DeckFormat.ASSET, e);
+            return null;
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // nothing left to do
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeckBundle{atlases=" + mAtlases.size() + ", hits=" + hits + ", misses=" + misses + '}';
+    }
+}
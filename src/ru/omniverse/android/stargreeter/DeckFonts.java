@@ -0,0 +1,80 @@
+package ru.omniverse.android.stargreeter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * How the fonts of a deck are rasterized: the padding and the {@link FontAtlas} flags of every atlas, and
+ * per font name and atlas size every character the deck draws with it, so that one atlas serves all slides
+ * with the font.
+ * <p/>
+ * StarGreeterRenderer asks for its atlases with these, and the DeckCompiler bakes them with the same, so
+ * that the atlases of a {@link DeckBundle} have the keys the renderer looks for. The bundle also keeps the
+ * texts, so the renderer knows them without a pass over the deck. Thread safe.
+ */
+final class DeckFonts {
+
+    // font padding on each side of a glyph
+    public static final int FONT_PAD = 2;
+    // atlases hold only the characters the deck uses, not the whole Windows-1251 set
+    private static final boolean DECK_GLYPHS_ONLY = true;
+    // one distance field atlas per typeface, sharp at any zoom, instead of a coverage atlas per size
+    private static final boolean DISTANCE_FIELD_FONTS = true;
+    // halved copies of every atlas, the auto zoom shrinks text about ten times
+    private static final boolean ATLAS_LEVELS = true;
+    public static final int FONT_FLAGS = (DECK_GLYPHS_ONLY ? 0 : FontAtlas.GLYPHS_DEFAULT)
+            | (DISTANCE_FIELD_FONTS ? FontAtlas.DISTANCE_FIELD : 0) | (ATLAS_LEVELS ? FontAtlas.LEVELS : 0);
+
+    // font name and atlas size -> every character the deck draws with that atlas
+    private final Map<String, String> mText = new LinkedHashMap<String, String>();
+
+    // Adds the characters of a slide to the text of its font
+    public void add(Slide slide) {
+        addText(fontKey(slide), slide.getText());
+    }
+
+    // Adds characters to the text of a font
+    public synchronized void addText(String fontKey, String text) {
+        final String known = mText.get(fontKey);
+        final StringBuilder union = new StringBuilder(known != null ? known : "");
+        appendMissing(union, text);
+        if (known == null || union.length() > known.length())
+            mText.put(fontKey, union.toString());
+    }
+
+    // Adds the texts of other fonts
+    public void addAll(DeckFonts fonts) {
+        for (Map.Entry<String, String> entry : fonts.getTexts().entrySet()) {
+            addText(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // Every character of the added slides with the font of a slide, null for a font none of them has
+    public synchronized String getText(Slide slide) {
+        return mText.get(fontKey(slide));
+    }
+
+    // Font key -> text, a copy
+    public synchronized Map<String, String> getTexts() {
+        return new LinkedHashMap<String, String>(mText);
+    }
+
+    // Font size the atlas of a slide is rasterized at
+    public static int atlasSize(Slide slide) {
+        return FontAtlas.atlasSize(slide.getFontSize(), FONT_FLAGS);
+    }
+
+    // Slides with the same key share an atlas
+    public static String fontKey(Slide slide) {
+        return slide.getFontName() + '/' + atlasSize(slide);
+    }
+
+    // Appends the characters of text that the builder does not have yet
+    static void appendMissing(StringBuilder builder, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (builder.indexOf(String.valueOf(c)) < 0)
+                builder.append(c);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ru.omniverse.android.stargreeter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The layout of a deck bundle, written by the DeckCompiler at build time and read by {@link DeckBundle}.
+ * <p/>
+ * Big endian, strings as an int length and UTF-16 chars:
+ * <pre>
+ * int MAGIC, int FORMAT_VERSION
+ * int atlas count, per atlas: string key, int offset from the first atlas, int length
+ * int deck length
+ * deck: int slide time, byte keep last slide, string audio name,
+ *       int font count, per font: string DeckFonts key, string text,
+ *       int slide count, per slide (the beginning first): string text, string font name, int font size,
+ *       string font color, int line count, string per line
+ * atlases: AtlasEntry entries
+ * </pre>
+ */
+final class DeckFormat {
+
+    // aapt compresses assets unless their extension is one of media it leaves alone, such as .jet; stored
+    // as is, the bundle is mapped straight from the package
+    public static final String ASSET = "stargreeter.deck.jet";
+    // bump when the layout changes
+    public static final int MAGIC = 0x4445434B;         // "DECK"
+    public static final int FORMAT_VERSION = 2;
+
+    private DeckFormat() {
+    }
+
+    //--Write Deck--//
+    // D: write the deck part of a bundle
+    // A: out - where to
+    //    slideTime, keepLastSlide, audioName - the settings
+    //    fonts - the characters of every font of the slides
+    //    slides - every slide, the beginning first
+    //    fontColors - the font color of each slide as the deck spells it, parsed on the device
+    // R: [none]
+    public static void writeDeck(DataOutput out, int slideTime, boolean keepLastSlide, String audioName,
+                                 DeckFonts fonts, List<Slide> slides, List<String> fontColors) throws IOException {
+        out.writeInt(slideTime);
+        out.writeByte(keepLastSlide ? 1 : 0);
+        writeString(out, audioName);
+        final Map<String, String> texts = fonts.getTexts();
+        out.writeInt(texts.size());
+        for (Map.Entry<String, String> text : texts.entrySet()) {
+            writeString(out, text.getKey());
+            writeString(out, text.getValue());
+        }
+        out.writeInt(slides.size());
+        for (int i = 0; i < slides.size(); i++) {
+            final Slide slide = slides.get(i);
+            writeString(out, slide.getText());
+            writeString(out, slide.getFontName());
+            out.writeInt(slide.getFontSize());
+            writeString(out, fontColors.get(i));
+            final String[] lines = slide.getLines();
+            out.writeInt(lines.length);
+            for (String line : lines) {
+                writeString(out, line);
+            }
+        }
+    }
+
+    //--Write Bundle--//
+    // D: write a whole bundle
+    // A: out - where to
+    //    deck - from writeDeck()
+    //    atlases - AtlasEntry key -> entry
+    // R: [none]
+    public static void writeBundle(DataOutput out, ByteArrayOutputStream deck, Map<String, byte[]> atlases)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(atlases.size());
+        int offset = 0;
+        for (Map.Entry<String, byte[]> atlas : atlases.entrySet()) {
+            writeString(out, atlas.getKey());
+            out.writeInt(offset);
+            out.writeInt(atlas.getValue().length);
+            offset += atlas.getValue().length;
+        }
+        out.writeInt(deck.size());
+        out.write(deck.toByteArray());
+        for (byte[] atlas : atlases.values()) {
+            out.write(atlas);
+        }
+    }
+
+    public static void writeString(DataOutput out, String string) throws IOException {
+        out.writeInt(string.length());
+        out.writeChars(string);
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        final char[] chars = new char[getCount(buffer, 2)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    // A count of items of at least bytesEach bytes, checked against the bytes left before anything is
+    // allocated for it: a garbled count would rather run out of memory than of buffer.
+    // throws BufferUnderflowException if the items can not fit
+    public static int getCount(ByteBuffer buffer, int bytesEach) {
+        final int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / bytesEach)
+            throw new BufferUnderflowException();
+        return count;
+    }
+}
@@ -0,0 +1,115 @@
+package ru.omniverse.android.stargreeter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns glyph coverage into a signed distance field.
+ * <p/>
+ * A texel stores its distance to the glyph edge: 0.5 on the edge, above inside, below outside, reaching
+ * 0 and 1 at {@code spread} texels from the edge. Sampled with linear filtering, the 0.5 level stays a
+ * sharp edge at any magnification, and the levels around it give outlines and glows for free.
+ * <p/>
+ * Distances are exact Euclidean distances between texel centers (Felzenszwalb and Huttenlocher,
+ * two 1D passes), corrected by the coverage of the texels next to the edge.
+ */
+class DistanceField {
+
+    private static final float INF = 1e20f;
+
+    private DistanceField() {
+    }
+
+    //--Transform--//
+    // D: replace the coverage of a rectangle with its distance field, in place. the rectangle must have
+    //    a margin of at least spread texels around the ink, texels outside it are not looked at.
+    // A: pixels - alpha only image from index 0, one byte per texel; read and written with absolute
+    //             gets and puts, so several threads may transform disjoint rectangles of one buffer
+    //    stride - bytes per image row
+    //    x, y, width, height - the rectangle (texels)
+    //    spread - the distance mapped to 0 and 1 (texels)
+    // R: [none]
+    public static void transform(ByteBuffer pixels, int stride, int x, int y, int width, int height, float spread) {
+        if (width <= 0 || height <= 0)
+            return;
+        final int n = width * height;
+        final float[] toInside = new float[n];          // squared distance to the nearest inside texel
+        final float[] toOutside = new float[n];         // squared distance to the nearest outside texel
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                final boolean inside = (pixels.get((y + row) * stride + x + col) & 0xFF) >= 128;
+                toInside[row * width + col] = inside ? 0 : INF;
+                toOutside[row * width + col] = inside ? INF : 0;
+            }
+        }
+
+        final int size = Math.max(width, height);
+        final float[] f = new float[size];
+        final float[] d = new float[size];
+        final int[] v = new int[size];
+        final float[] z = new float[size + 1];
+        transform2D(toInside, width, height, f, d, v, z);
+        transform2D(toOutside, width, height, f, d, v, z);
+
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                final int i = row * width + col;
+                final int p = (y + row) * stride + x + col;
+                float distance;
+                if (toInside[i] == 1 || toOutside[i] == 1) {
+                    // next to the edge, the coverage tells where it crosses the texel
+                    distance = (pixels.get(p) & 0xFF) / 255.0f - 0.5f;
+                } else if (toInside[i] == 0) {
+                    distance = (float) Math.sqrt(toOutside[i]) - 0.5f;
+                } else {
+                    distance = 0.5f - (float) Math.sqrt(toInside[i]);
+                }
+                final float value = 0.5f + distance / (2 * spread);
+                pixels.put(p, (byte) Math.round(Math.max(0, Math.min(1, value)) * 255));
+            }
+        }
+    }
+
+    // Squared distance transform of a grid, columns then rows
+    private static void transform2D(float[] grid, int width, int height, float[] f, float[] d, int[] v, float[] z) {
+        for (int col = 0; col < width; col++) {
+            for (int row = 0; row < height; row++) {
+                f[row] = grid[row * width + col];
+            }
+            transform1D(f, height, d, v, z);
+            for (int row = 0; row < height; row++) {
+                grid[row * width + col] = d[row];
+            }
+        }
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(grid, row * width, f, 0, width);
+            transform1D(f, width, d, v, z);
+            System.arraycopy(d, 0, grid, row * width, width);
+        }
+    }
+
+    // Lower envelope of the parabolas rooted at f
+    private static void transform1D(float[] f, int n, float[] d, int[] v, float[] z) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = -INF;
+        z[1] = INF;
+        for (int q = 1; q < n; q++) {
+            float s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2 * q - 2 * v[k]);
+            while (s <= z[k]) {
+                k--;
+                s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2 * q - 2 * v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = INF;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) {
+                k++;
+            }
+            d[q] = (q - v[k]) * (q - v[k]) + f[v[k]];
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package ru.omniverse.android.stargreeter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Rasterized glyphs of a font and their metrics, ready to be uploaded by {@link GLText#load(FontAtlas)}.
+ * <p/>
+ * Building an atlas needs no GL context, so it can run on any thread; only the upload has to
+ * happen on the GL thread. Nor does it need Android: the glyphs are drawn by a {@link GlyphRenderer}
+ * and measured with the {@link TrueTypeMetrics} of the font, so the DeckCompiler bakes atlases with
+ * this same code at build time. The pixels are a direct buffer the upload only reads, so a font can be
+ * uploaded again to a new context without rasterizing or reading the cache.
+ * <p/>
+ * A {@link #DISTANCE_FIELD} atlas stores the {@link DistanceField} of the glyphs instead of their coverage;
+ * rendered at {@link #SDF_FONT_SIZE} it stays sharp at any size.
+ * <p/>
+ * With {@link #LEVELS} the atlas also carries copies of itself at half, a quarter... of the size, so that
+ * text seen from far away samples a small texture with fewer texels per screen pixel.
+ */
+class FontAtlas {
+
+    //--Constants--//
+    public static final char CHAR_NONE = 32;           // Character to Use for Unknown (ASCII Code)
+
+    public static final int FONT_SIZE_MIN = 6;         // Minumum Font Size (Pixels)
+    public static final int FONT_SIZE_MAX = 180;       // Maximum Font Size (Pixels)
+
+    public static final int TEXTURE_SIZE_MIN = 64;     // Smallest Font Texture Size (Pixels)
+    public static final int TEXTURE_SIZE_MAX = 2048;   // Largest Font Texture Size (Pixels)
+
+    public static final int GLYPHS_DEFAULT = 1;        // Flag: Include Windows-1251 Besides the Text
+    public static final int DISTANCE_FIELD = 2;        // Flag: Store Signed Distances Instead of Coverage
+    public static final int LEVELS = 4;                // Flag: Also Keep Halved Copies for Far Away Text
+
+    public static final int SDF_FONT_SIZE = 48;        // Font Size of Distance Field Atlases, Scaled to Any Size (Pixels)
+    public static final int SDF_SPREAD = 6;            // Distance Mapped to 0 and 1, Also the Least Padding (Pixels)
+
+    public static final int MAX_LEVELS = 4;            // Most Levels, the Atlas Itself Included
+    public static final int LEVEL_SIZE_MIN = 32;       // Smallest Side of a Halved Copy (Pixels)
+
+    private static final int MAX_BANDS = 4;            // Most Row Bands Rasterized at Once
+    private static final int MIN_BAND_GLYPHS = 16;     // Fewest Glyphs Worth a Band of Their Own
+
+    // band workers shared by every atlas, the thread rasterizing an atlas does one band itself
+    private static final ExecutorService BAND_EXECUTOR = Executors.newFixedThreadPool(MAX_BANDS - 1,
+            new ThreadFactory() {
+                private int mCount;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AtlasBand-" + ++mCount);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    //--Members--//
+    final String fontName;                             // Font Name (Without Extension)
+    final int fontSize;                                // Requested Font Size (Pixels)
+    final String text;                                 // Characters Included (Besides Windows-1251 if GLYPHS_DEFAULT)
+    final int flags;                                   // GLYPHS_DEFAULT, DISTANCE_FIELD
+    final int fontPadX, fontPadY;                      // Font Padding (Pixels; On Each Side)
+
+    float fontHeight;                                  // Font Height (Actual; Pixels)
+    float fontAscent;                                  // Font Ascent (Above Baseline; Pixels)
+    float fontDescent;                                 // Font Descent (Below Baseline; Pixels)
+
+    int textureWidth, textureHeight;                   // Texture Size for Font (Powers of Two)
+    float charWidthMax;                                // Character Width (Maximum; Pixels)
+    float charHeight;                                  // Character Height (Maximum; Pixels)
+    GlyphTable glyphs;                                 // Character to Glyph Index Lookup
+    float[] charWidths;                                // Width of Each Character (Advance; Pixels)
+    TextureRegion[] charRgn;                           // Region of Each Character (Texture Coordinates)
+    int[] glyphWidths, glyphHeights;                   // Size of Each Glyph Quad (Bounds + Padding; Pixels)
+    float[] glyphCenterX, glyphCenterY;                // Center of Each Glyph Quad (From Pen at Text Bottom; Pixels)
+    float fillRatio;                                   // Texture Area Covered by Glyphs
+
+    ByteBuffer pixels;                                 // Glyph Pixels (Alpha Only, Direct), Maybe Mapped from the Cache
+    ByteBuffer[] levels;                               // Halved Copies of the Pixels (Level 1..; Alpha Only, Direct)
+
+    FontAtlas(String fontName, int fontSize, String text, int flags, int padX, int padY) {
+        this.fontName = fontName;
+        this.fontSize = fontSize;
+        this.text = text;
+        this.flags = flags;
+        this.fontPadX = padX;
+        this.fontPadY = padY;
+    }
+
+    //--Rasterize--//
+    // D: render the glyphs of a text, and of the Windows-1251 set if asked, tightly packed by their
+    //    measured bounds into a bitmap, keep its pixels, and setup all values required to render with them
+    // A: renderer - measures and draws the glyphs of the font at the size
+    //    metrics - the metrics of the font file, the line and the advances come from there
+    //    name - Filename of the font (.ttf) to use, without extension. In 'Assets' folder.
+    //    size - Requested pixel size of font (height)
+    //    padX, padY - Extra padding per character (X+Y Axis); to prevent overlapping characters.
+    //    text - Characters to include (any BMP script)
+    //    flags - GLYPHS_DEFAULT to include Windows-1251 besides the text,
+    //            DISTANCE_FIELD for a signed distance field (padding is at least SDF_SPREAD),
+    //            LEVELS is left to buildLevels()
+    // R: the atlas, or null if the font size or the glyph set does not fit a texture
+    public static FontAtlas rasterize(GlyphRenderer renderer, TrueTypeMetrics metrics, String name, int size,
+                                      int padX, int padY, CharSequence text, int flags) {
+        if ((flags & DISTANCE_FIELD) != 0) {
+            // the field reaches SDF_SPREAD beyond the ink
+            padX = Math.max(padX, SDF_SPREAD);
+            padY = Math.max(padY, SDF_SPREAD);
+        }
+        final FontAtlas atlas = new FontAtlas(name, size, text.toString(), flags, padX, padY);
+
+        // get font metrics
+        atlas.fontHeight = (float) Math.ceil(Math.abs(metrics.getBottom(size)) + Math.abs(metrics.getTop(size)));  // Calculate Font Height
+        atlas.fontAscent = (float) Math.ceil(Math.abs(metrics.getAscent(size)));  // Save Font Ascent
+        atlas.fontDescent = (float) Math.ceil(Math.abs(metrics.getDescent(size)));  // Save Font Descent
+
+        // build the glyph set: unknown character first, then the default set and the text
+        final GlyphTable glyphs = new GlyphTable(CHAR_NONE);
+        if ((flags & GLYPHS_DEFAULT) != 0)
+            glyphs.addAll(GlyphTable.cp1251());
+        glyphs.addAll(text);
+        final int glyphCnt = glyphs.size();
+        atlas.glyphs = glyphs;
+        final float[] charWidths = new float[glyphCnt];  // Create the Array of Character Widths
+        final int[][] bounds = new int[glyphCnt][4];    // Ink Bounds of Each Glyph (From Pen on Baseline)
+        atlas.charWidths = charWidths;
+
+        // determine the width and the bounds of each character (including unknown character)
+        // also determine the maximum character width
+        float charWidthMax = 0;                         // Reset Character Width Maximum
+        for (int g = 0; g < glyphCnt; g++) {           // FOR Each Glyph
+            charWidths[g] = metrics.getAdvance(glyphs.charAt(g), size);  // Get Character Advance
+            if (charWidths[g] > charWidthMax)          // IF Width Larger Than Max Width
+                charWidthMax = charWidths[g];             // Save New Max Width
+            renderer.getBounds(glyphs.charAt(g), bounds[g]);  // Get Character Bounds
+        }
+        atlas.charWidthMax = charWidthMax;
+
+        // set character height to font height
+        atlas.charHeight = atlas.fontHeight;            // Set Character Height
+
+        // validate the font size against the largest cell a glyph could need
+        final int maxSize = Math.max((int) charWidthMax + (2 * padX), (int) atlas.charHeight + (2 * padY));
+        if (maxSize < FONT_SIZE_MIN || maxSize > FONT_SIZE_MAX)  // IF Maximum Size Outside Valid Bounds
+            return null;                                 // Return Error
+
+        // glyph quads: the ink bounds plus padding, blank glyphs (space) get none
+        final int[] glyphWidths = new int[glyphCnt];
+        final int[] glyphHeights = new int[glyphCnt];
+        final float[] centerX = new float[glyphCnt];
+        final float[] centerY = new float[glyphCnt];
+        long glyphArea = 0;
+        for (int g = 0; g < glyphCnt; g++) {
+            final int[] b = bounds[g];
+            final int width = b[2] - b[0], height = b[3] - b[1];
+            if (width > 0 && height > 0) {
+                glyphWidths[g] = width + 2 * padX;
+                glyphHeights[g] = height + 2 * padY;
+                glyphArea += (long) glyphWidths[g] * glyphHeights[g];
+            }
+            // y up from the text bottom, the baseline is fontDescent above it
+            centerX[g] = (b[0] + b[2]) / 2.0f;
+            centerY[g] = atlas.fontDescent - (b[1] + b[3]) / 2.0f;
+        }
+        atlas.glyphWidths = glyphWidths;
+        atlas.glyphHeights = glyphHeights;
+        atlas.glyphCenterX = centerX;
+        atlas.glyphCenterY = centerY;
+
+        // pack the tallest glyphs first
+        final Integer[] order = new Integer[glyphCnt];
+        for (int g = 0; g < glyphCnt; g++) {
+            order[g] = g;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (glyphHeights[a] != glyphHeights[b])
+                    return glyphHeights[b] - glyphHeights[a];
+                return glyphWidths[b] - glyphWidths[a];
+            }
+        });
+
+        // find the smallest power of two texture (square or twice as wide) the glyphs pack into
+        final int[][] positions = new int[glyphCnt][2];
+        int textureWidth = TEXTURE_SIZE_MIN, textureHeight = TEXTURE_SIZE_MIN;
+        SkylinePacker packer;
+        while (true) {
+            packer = (long) textureWidth * textureHeight >= glyphArea
+                    ? pack(textureWidth, textureHeight, order, glyphWidths, glyphHeights, positions) : null;
+            if (packer != null)
+                break;
+            if (textureWidth == textureHeight)
+                textureWidth *= 2;
+            else
+                textureHeight *= 2;
+            if (textureWidth > TEXTURE_SIZE_MAX)
+                return null;                             // Glyph Set Does Not Fit a Font Texture
+        }
+        atlas.textureWidth = textureWidth;
+        atlas.textureHeight = textureHeight;
+        atlas.fillRatio = packer.getFillRatio();
+
+        // setup the array of character texture regions
+        final TextureRegion[] charRgn = new TextureRegion[glyphCnt];  // Create the Array of Character Regions
+        for (int g = 0; g < glyphCnt; g++) {           // FOR Each Glyph
+            charRgn[g] = new TextureRegion(textureWidth, textureHeight, positions[g][0], positions[g][1],
+                    glyphWidths[g], glyphHeights[g]);  // Create Region for Character
+        }
+        atlas.charRgn = charRgn;
+
+        // split the texture into row bands, a glyph belongs to the band its top is in
+        final int bands = bandCount(glyphCnt);
+        final int[] bandOf = new int[glyphCnt];
+        for (int g = 0; g < glyphCnt; g++) {
+            bandOf[g] = positions[g][1] * bands / textureHeight;
+        }
+
+        // render each of the characters into its place (ie. build the font map), a band per worker.
+        // glyph rectangles do not overlap, so the bands write disjoint pixels of the shared surface
+        final GlyphRenderer.Surface surface = renderer.createSurface(textureWidth, textureHeight);
+        final int drawPadX = padX, drawPadY = padY;
+        runBands(bands, new BandTask() {
+            @Override
+            public void run(int band) {
+                final char[] c = new char[glyphCnt];
+                final float[] x = new float[glyphCnt], y = new float[glyphCnt];
+                int count = 0;
+                for (int g = 0; g < glyphCnt; g++) {   // FOR Each Glyph of the Band
+                    if (bandOf[g] != band || glyphWidths[g] == 0)
+                        continue;
+                    c[count] = glyphs.charAt(g);
+                    x[count] = positions[g][0] + drawPadX - bounds[g][0];
+                    y[count] = positions[g][1] + drawPadY - bounds[g][1];
+                    count++;
+                }
+                surface.draw(c, x, y, count);          // Draw Characters
+            }
+        });
+        // the pixels go straight into a direct buffer, they outlive the surface and any GL context
+        final ByteBuffer pixels = ByteBuffer.allocateDirect(textureWidth * textureHeight);
+        surface.finish(pixels);
+        pixels.rewind();
+        atlas.pixels = pixels;
+
+        // replace the coverage of every glyph with its distance field, band by band again
+        if ((flags & DISTANCE_FIELD) != 0) {
+            final int stride = textureWidth;
+            runBands(bands, new BandTask() {
+                @Override
+                public void run(int band) {
+                    for (int g = 0; g < glyphCnt; g++) {
+                        if (bandOf[g] == band)
+                            DistanceField.transform(pixels, stride, positions[g][0], positions[g][1],
+                                    glyphWidths[g], glyphHeights[g], SDF_SPREAD);
+                    }
+                }
+            });
+        }
+
+        return atlas;
+    }
+
+    private interface BandTask {
+        void run(int band);
+    }
+
+    // Bands to split an atlas into: one per core, none for a handful of glyphs
+    private static int bandCount(int glyphCnt) {
+        final int bands = Math.min(MAX_BANDS, Runtime.getRuntime().availableProcessors());
+        return Math.max(1, Math.min(bands, glyphCnt / MIN_BAND_GLYPHS));
+    }
+
+    // Runs a task for every band, band 0 on the calling thread and the others on the band workers
+    private static void runBands(int bands, final BandTask task) {
+        if (bands == 1) {
+            task.run(0);
+            return;
+        }
+        final List<Future<?>> futures = new ArrayList<Future<?>>(bands - 1);
+        for (int b = 1; b < bands; b++) {
+            final int band = b;
+            futures.add(BAND_EXECUTOR.submit(new Runnable() {
+                @Override
+                public void run() {
+                    task.run(band);
+                }
+            }));
+        }
+        task.run(0);
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while rasterizing an atlas", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Rasterizing an atlas band failed", e.getCause());
+            }
+        }
+    }
+
+    // Packs the glyphs in the given order, returns null if they do not fit the size
+    private static SkylinePacker pack(int width, int height, Integer[] order, int[] widths, int[] heights,
+                                      int[][] positions) {
+        final SkylinePacker packer = new SkylinePacker(width, height);
+        for (int g : order) {
+            if (!packer.pack(widths[g], heights[g], positions[g]))
+                return null;
+        }
+        return packer;
+    }
+
+    //--Build Levels--//
+    // D: make the halved copies of the atlas, down to LEVEL_SIZE_MIN. glyph regions are texture
+    //    coordinates, so every level draws with the same mesh. may be called on any thread.
+    // A: [none]
+    // R: [none]
+    void buildLevels() {
+        final List<ByteBuffer> halved = new ArrayList<ByteBuffer>(MAX_LEVELS - 1);
+        ByteBuffer level = pixels;
+        int width = textureWidth, height = textureHeight;
+        while (halved.size() < MAX_LEVELS - 1 && Math.min(width, height) / 2 >= LEVEL_SIZE_MIN) {
+            level = halve(level, width, height);
+            width /= 2;
+            height /= 2;
+            halved.add(level);
+        }
+        levels = halved.toArray(new ByteBuffer[halved.size()]);
+    }
+
+    // Averages every 2x2 texels of an image with even sides into a new direct buffer, reading with absolute
+    // gets so that the position of the image is left as is
+    private static ByteBuffer halve(ByteBuffer pixels, int width, int height) {
+        final int halfWidth = width / 2, halfHeight = height / 2;
+        final ByteBuffer half = ByteBuffer.allocateDirect(halfWidth * halfHeight);
+        for (int row = 0; row < halfHeight; row++) {
+            final int top = 2 * row * width, bottom = top + width;
+            for (int col = 0; col < halfWidth; col++) {
+                final int sum = (pixels.get(top + 2 * col) & 0xFF) + (pixels.get(top + 2 * col + 1) & 0xFF)
+                        + (pixels.get(bottom + 2 * col) & 0xFF) + (pixels.get(bottom + 2 * col + 1) & 0xFF);
+                half.put(row * halfWidth + col, (byte) ((sum + 2) >> 2));
+            }
+        }
+        return half;
+    }
+
+    // Texture size of a level, 0 being the atlas itself
+    public int levelWidth(int level) {
+        return textureWidth >> level;
+    }
+
+    public int levelHeight(int level) {
+        return textureHeight >> level;
+    }
+
+    // Font size an atlas is rasterized at for a requested size: distance fields have one size
+    public static int atlasSize(int fontSize, int flags) {
+        return (flags & DISTANCE_FIELD) != 0 ? SDF_FONT_SIZE : fontSize;
+    }
+
+    public boolean isDistanceField() {
+        return (flags & DISTANCE_FIELD) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "FontAtlas{" + fontName + " " + fontSize + "px, " + glyphs.size() + " glyphs, "
+                + textureWidth + "x" + textureHeight + ", fill " + Math.round(fillRatio * 100) + "%}";
+    }
+}
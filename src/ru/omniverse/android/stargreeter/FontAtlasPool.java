@@ -0,0 +1,199 @@
+package ru.omniverse.android.stargreeter;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reference-counted fonts of one GL context, keyed by font name, size and padding.
+ * <p/>
+ * Slides with the same font settings share one {@link GLText}: its atlas texture, program and batch.
+ * An atlas covers the text it was loaded for, plus Windows-1251 with {@link FontAtlas#GLYPHS_DEFAULT}; a text with characters it lacks gets
+ * a new atlas built for the union of the texts, which supersedes the old one for later requests.
+ * An atlas prefetched for the text, or kept by a font of a lost context, can be handed in, so that a
+ * miss only uploads it.
+ * Fonts nobody holds stay loaded for reuse until more than {@link #MAX_IDLE} are idle, then the least
+ * recently used ones are released.
+ * <p/>
+ * Create a new pool for every context, the objects of a lost context are simply dropped.
+ */
+class FontAtlasPool {
+
+    public static final int MAX_IDLE = 2;
+
+    private static class Entry {
+        final String fontName;
+        final int fontSize;
+        final int padX, padY;
+        final String text;                  // extra characters the atlas was loaded with
+        final GLText glText;
+        int refs;
+        long lastUsed;
+
+        Entry(String fontName, int fontSize, int padX, int padY, String text, GLText glText) {
+            this.fontName = fontName;
+            this.fontSize = fontSize;
+            this.padX = padX;
+            this.padY = padY;
+            this.text = text;
+            this.glText = glText;
+        }
+
+        boolean matches(String fontName, int fontSize, int padX, int padY) {
+            return this.fontName.equals(fontName) && this.fontSize == fontSize
+                    && this.padX == padX && this.padY == padY;
+        }
+    }
+
+    private final ResourceLoader mResourceLoader;
+    private final GLState mState;
+    private final int mFlags;
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+    private long mUseCounter;
+
+    public int hits;                        // requests served by a loaded font
+    public int misses;                      // requests that loaded a font
+    public int evictions;                   // fonts released
+
+    // flags - atlas flags of every font, see FontAtlas.rasterize()
+    public FontAtlasPool(ResourceLoader resourceLoader, GLState state, int flags) {
+        mResourceLoader = resourceLoader;
+        mState = state;
+        mFlags = flags;
+    }
+
+    //--Acquire--//
+    // D: return a font loaded with the given settings that has glyphs for the text, loading it if needed.
+    //    every acquire() must be paired with a release().
+    // A: fontName, fontSize, padX, padY - see GLText.load()
+    //    text - the characters that will be drawn
+    //    prefetched - atlas rasterized ahead for these settings and text, or null;
+    //                 used on a miss, dropped otherwise
+    // R: the shared font
+    public GLText acquire(String fontName, int fontSize, int padX, int padY, String text, FontAtlas prefetched) {
+        Entry found = null;
+        final StringBuilder union = new StringBuilder(text);
+        for (Entry entry : mEntries) {
+            if (!entry.matches(fontName, fontSize, padX, padY))
+                continue;
+            if (entry.glText.hasGlyphs(text)) {
+                // prefer the newest atlas, it covers the most
+                if (found == null || entry.lastUsed > found.lastUsed)
+                    found = entry;
+            }
+            DeckFonts.appendMissing(union, entry.text);
+        }
+
+        if (found != null) {
+            hits++;
+        } else {
+            misses++;
+            final GLText glText = new GLText(mResourceLoader, mState, (mFlags & FontAtlas.DISTANCE_FIELD) != 0);
+            String loadedText = union.toString();
+            if (prefetched != null) {
+                glText.load(prefetched);                // only the upload is left
+                loadedText = prefetched.text;
+            } else if (!glText.load(fontName, fontSize, padX, padY, union, mFlags)) {
+                Log.e(Utils.TAG, "Font " + fontName + " " + fontSize + "px does not fit an atlas");
+            }
+            found = new Entry(fontName, fontSize, padX, padY, loadedText, glText);
+            mEntries.add(found);
+            Log.d(Utils.TAG, "Loaded font " + fontName + " " + fontSize + "px, " + mEntries.size() + " in pool");
+        }
+
+        found.refs++;
+        found.lastUsed = ++mUseCounter;
+        evictIdle();
+        return found.glText;
+    }
+
+    // Whether acquire() would return a loaded font without loading one
+    public boolean contains(String fontName, int fontSize, int padX, int padY, String text) {
+        for (Entry entry : mEntries) {
+            if (entry.matches(fontName, fontSize, padX, padY) && entry.glText.hasGlyphs(text))
+                return true;
+        }
+        return false;
+    }
+
+    //--Release--//
+    // D: give back a font returned by acquire(), it may be released when idle
+    // A: glText - the font
+    // R: [none]
+    public void release(GLText glText) {
+        for (Entry entry : mEntries) {
+            if (entry.glText == glText) {
+                if (entry.refs <= 0)
+                    throw new IllegalStateException("Font released more often than acquired");
+                entry.refs--;
+                evictIdle();
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Font is not from this pool");
+    }
+
+    // Releases the least recently used idle fonts above MAX_IDLE, and idle fonts superseded by a newer
+    // atlas of the same settings
+    private void evictIdle() {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            final Entry entry = mEntries.get(i);
+            if (entry.refs == 0 && isSuperseded(entry))
+                evict(i);
+        }
+
+        int idle = 0;
+        for (Entry entry : mEntries) {
+            if (entry.refs == 0)
+                idle++;
+        }
+        while (idle > MAX_IDLE) {
+            int oldest = -1;
+            for (int i = 0; i < mEntries.size(); i++) {
+                final Entry entry = mEntries.get(i);
+                if (entry.refs == 0 && (oldest < 0 || entry.lastUsed < mEntries.get(oldest).lastUsed))
+                    oldest = i;
+            }
+            evict(oldest);
+            idle--;
+        }
+    }
+
+    private boolean isSuperseded(Entry entry) {
+        for (Entry other : mEntries) {
+            if (other != entry && other.lastUsed > entry.lastUsed
+                    && other.matches(entry.fontName, entry.fontSize, entry.padX, entry.padY)
+                    && other.glText.hasGlyphs(entry.text))
+                return true;
+        }
+        return false;
+    }
+
+    private void evict(int index) {
+        final Entry entry = mEntries.remove(index);
+        entry.glText.release();
+        evictions++;
+        Log.d(Utils.TAG, "Released font " + entry.fontName + " " + entry.fontSize + "px, "
+                + mEntries.size() + " in pool");
+    }
+
+    // Releases every font, held or not
+    public void releaseAll() {
+        for (Entry entry : mEntries) {
+            entry.glText.release();
+        }
+        evictions += mEntries.size();
+        mEntries.clear();
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "FontAtlasPool{size=" + mEntries.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + '}';
+    }
+}
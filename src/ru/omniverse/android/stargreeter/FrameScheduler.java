@@ -0,0 +1,123 @@
+package ru.omniverse.android.stargreeter;
+
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Decides when the next frame is drawn. The view renders only when dirty, and after every frame
+ * the renderer reports what is animating:
+ * <ul>
+ * <li>camera movement or a timeline transition - the next frame is requested at once (continuous);</li>
+ * <li>only the slowly moving light - the next frame is requested at {@link #CAPPED_FPS} (capped);</li>
+ * <li>nothing - no frame until the next timeline event, a touch, or {@link #IDLE_WAKEUP_MS} (on demand).</li>
+ * </ul>
+ * Frames not drawn are counted against the {@link #DISPLAY_FPS} a continuous view would draw.
+ */
+class FrameScheduler {
+
+    public static final int MODE_CONTINUOUS = 0;
+    public static final int MODE_CAPPED = 1;
+    public static final int MODE_ON_DEMAND = 2;
+
+    public static final int DISPLAY_FPS = 60;
+    public static final int CAPPED_FPS = 20;
+    // longest time without a frame, in case an event was not reported
+    public static final long IDLE_WAKEUP_MS = 1000;
+
+    private final GLSurfaceView mView;
+    private final Handler mHandler;              // created on the UI thread, delays requests
+    private final Runnable mRequestRender = new Runnable() {
+        @Override
+        public void run() {
+            mView.requestRender();
+        }
+    };
+
+    private int mMode = MODE_CONTINUOUS;
+    private long mLastFrameTime;
+    public int framesDrawn;                      // frames drawn since resetStats()
+    public int framesSkipped;                    // frames a continuous view would have drawn in addition
+
+    // Call on the UI thread
+    public FrameScheduler(GLSurfaceView view) {
+        mView = view;
+        mHandler = new Handler();
+    }
+
+    // Switches the view to dirty rendering driven by this scheduler
+    public void start() {
+        mView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        mView.requestRender();
+    }
+
+    // Requests a frame now, e.g. when something loaded in the background. may be called on any thread
+    public void wake() {
+        mView.requestRender();
+    }
+
+    //--Frame Drawn--//
+    // D: count the frame and request the next one according to what is animating.
+    //    called on the GL thread at the end of every frame.
+    // A: timelineAnimating - a slide transition is running
+    //    cameraAnimating - the camera is moving on its own
+    //    lightingAnimating - the light is moving
+    //    nextEventMs - time until the timeline needs a frame, negative if never
+    // R: the mode used for the next frame
+    public int frameDrawn(boolean timelineAnimating, boolean cameraAnimating, boolean lightingAnimating,
+                          long nextEventMs) {
+        final long now = SystemClock.uptimeMillis();
+        if (mLastFrameTime > 0) {
+            final long displayFrames = (now - mLastFrameTime) * DISPLAY_FPS / 1000;
+            if (displayFrames > 1)
+                framesSkipped += displayFrames - 1;
+        }
+        mLastFrameTime = now;
+        framesDrawn++;
+
+        final int mode = timelineAnimating || cameraAnimating ? MODE_CONTINUOUS
+                : lightingAnimating ? MODE_CAPPED
+                : MODE_ON_DEMAND;
+        if (mode != mMode) {
+            Log.d(Utils.TAG, "Frame scheduling " + modeName(mMode) + " -> " + modeName(mode));
+            mMode = mode;
+        }
+
+        // a touch or the surface may have requested a frame already, drop the pending request
+        mHandler.removeCallbacks(mRequestRender);
+        switch (mode) {
+            case MODE_CONTINUOUS:
+                mView.requestRender();
+                break;
+            case MODE_CAPPED:
+                mHandler.postDelayed(mRequestRender, 1000 / CAPPED_FPS);
+                break;
+            default:
+                long delay = nextEventMs >= 0 ? Math.min(nextEventMs, IDLE_WAKEUP_MS) : IDLE_WAKEUP_MS;
+                mHandler.postDelayed(mRequestRender, delay);
+                break;
+        }
+        return mode;
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public void resetStats() {
+        framesDrawn = 0;
+        framesSkipped = 0;
+    }
+
+    static String modeName(int mode) {
+        switch (mode) {
+            case MODE_CONTINUOUS:
+                return "continuous";
+            case MODE_CAPPED:
+                return "capped";
+            default:
+                return "on-demand";
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ru.omniverse.android.stargreeter;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Policy for checking GL errors.
+ * <p/>
+ * glGetError may wait for the GPU to finish the queued commands, so checking after every call
+ * ({@link #MODE_DEBUG}) stalls the pipeline many times per frame. The other modes skip the per-call
+ * checks and drain the error flags at the end of a frame: every frame, every N-th frame, or never.
+ * An error found at the end of a frame can come from any call of that frame (or of the unchecked
+ * frames before it); the debug mode names the failing call and throws.
+ */
+class GLErrorCheck {
+
+    public static final int MODE_OFF = 0;           // never call glGetError
+    public static final int MODE_FRAME = 1;         // once per frame, the release default
+    public static final int MODE_SAMPLED = 2;       // once every sampleInterval frames
+    public static final int MODE_DEBUG = 3;         // after every checked call, throws on error
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 30;
+
+    /**
+     * Metrics hook, called on the GL thread for every error detected.
+     */
+    interface Listener {
+        // operation - the checked call, or "frame" for errors found at the end of a frame
+        void onGlError(String operation, int error, int totalErrors);
+    }
+
+    public final int mode;
+    public final int sampleInterval;
+    public int errors;                              // errors detected since creation
+    public int queries;                             // glGetError calls since creation
+    private int frame;
+    private Listener listener;
+
+    public GLErrorCheck(int mode, int sampleInterval) {
+        if (sampleInterval < 1)
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        this.mode = mode;
+        this.sampleInterval = sampleInterval;
+    }
+
+    // Full checks for debuggable builds, once per frame for release builds
+    public static GLErrorCheck forContext(Context context) {
+        final boolean debuggable = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        return new GLErrorCheck(debuggable ? MODE_DEBUG : MODE_FRAME, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Checks right after a call, only in the debug mode
+    public void check(String operation) {
+        if (mode == MODE_DEBUG)
+            drain(operation);
+    }
+
+    // Call at the end of every frame
+    public void endFrame() {
+        frame++;
+        if (mode == MODE_FRAME || mode == MODE_DEBUG
+                || (mode == MODE_SAMPLED && frame % sampleInterval == 0))
+            drain("frame");
+    }
+
+    private void drain(String operation) {
+        int error;
+        queries++;
+        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+            queries++;
+            errors++;
+            Log.e(Utils.TAG, operation + ": glError " + error);
+            if (listener != null)
+                listener.onGlError(operation, error, errors);
+            if (mode == MODE_DEBUG)
+                throw new RuntimeException(operation + ": glError " + error);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GLErrorCheck{mode=" + mode + ", errors=" + errors + ", queries=" + queries + '}';
+    }
+}
@@ -0,0 +1,125 @@
+package ru.omniverse.android.stargreeter;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the GL objects of one context: textures, programs, shaders and buffers.
+ * <p/>
+ * {@link GLState} registers every object it creates and unregisters it when deleted, along with the
+ * bytes of storage it was given (texture images and buffer data; programs and shaders count 0).
+ * The live inventory ({@link #getLiveCount()}, {@link #getLiveBytes()}) must stay flat over a long
+ * run once every slide has been seen; anything still registered when its owner is gone is a leak.
+ * {@link GLState#releaseAll()} deletes whatever is left.
+ */
+class GLResources {
+
+    public static final int TEXTURE = 0;
+    public static final int PROGRAM = 1;
+    public static final int SHADER = 2;
+    public static final int BUFFER = 3;
+    private static final int TYPE_COUNT = 4;
+    private static final String[] TYPE_NAMES = {"texture", "program", "shader", "buffer"};
+
+    private static class Resource {
+        final int type;
+        final int handle;
+        final String label;
+        int bytes;
+
+        Resource(int type, int handle, String label) {
+            this.type = type;
+            this.handle = handle;
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return TYPE_NAMES[type] + " " + handle + " '" + label + "' " + bytes + "B";
+        }
+    }
+
+    private final Map<Long, Resource> mLive = new HashMap<Long, Resource>();
+    private final int[] mLiveCounts = new int[TYPE_COUNT];
+    private long mLiveBytes;
+    public int created;                     // objects registered since creation
+    public int deleted;                     // objects unregistered since creation
+
+    private static long key(int type, int handle) {
+        return ((long) type << 32) | (handle & 0xFFFFFFFFL);
+    }
+
+    void register(int type, int handle, String label) {
+        if (handle == 0)
+            return;
+        if (mLive.put(key(type, handle), new Resource(type, handle, label)) != null)
+            throw new IllegalStateException(TYPE_NAMES[type] + " " + handle + " registered twice");
+        mLiveCounts[type]++;
+        created++;
+    }
+
+    void unregister(int type, int handle) {
+        final Resource resource = mLive.remove(key(type, handle));
+        if (resource == null) {
+            Log.w(Utils.TAG, "Deleting unregistered " + TYPE_NAMES[type] + " " + handle);
+            return;
+        }
+        mLiveCounts[type]--;
+        mLiveBytes -= resource.bytes;
+        deleted++;
+    }
+
+    // Records the storage size of a registered object, replacing the previous size
+    void setBytes(int type, int handle, int bytes) {
+        final Resource resource = mLive.get(key(type, handle));
+        if (resource == null)
+            return;
+        mLiveBytes += bytes - resource.bytes;
+        resource.bytes = bytes;
+    }
+
+    public int getLiveCount() {
+        return mLive.size();
+    }
+
+    public int getLiveCount(int type) {
+        return mLiveCounts[type];
+    }
+
+    public long getLiveBytes() {
+        return mLiveBytes;
+    }
+
+    // One line per live object
+    public List<String> getInventory() {
+        final List<String> inventory = new ArrayList<String>(mLive.size());
+        for (Resource resource : mLive.values()) {
+            inventory.add(resource.toString());
+        }
+        return inventory;
+    }
+
+    // Handles of the live objects of a type
+    public int[] getLiveHandles(int type) {
+        final int[] handles = new int[mLiveCounts[type]];
+        int i = 0;
+        for (Resource resource : mLive.values()) {
+            if (resource.type == type)
+                handles[i++] = resource.handle;
+        }
+        return handles;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("GLResources{");
+        for (int i = 0; i < TYPE_COUNT; i++) {
+            sb.append(TYPE_NAMES[i]).append("s=").append(mLiveCounts[i]).append(", ");
+        }
+        return sb.append("bytes=").append(mLiveBytes).append('}').toString();
+    }
+}
@@ -0,0 +1,410 @@
+package ru.omniverse.android.stargreeter;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.Buffer;
+
+/**
+ * Render state tracker for one GL context. All GL calls of the renderer go through it.
+ * <p/>
+ * Bindable state (program, texture unit and bindings, buffer bindings, enabled vertex attribute
+ * arrays, capabilities, blend function) is cached, and a change to the value already set is not
+ * issued. Other calls (uniforms, pointers, draws, uploads) are passed through so that the counters
+ * cover everything the driver sees: {@link #issued} and {@link #elided} since {@link #resetStats()}.
+ * <p/>
+ * The cache assumes nobody calls GLES20 behind its back. A new context starts with the GL defaults,
+ * so create a new instance for every context.
+ * <p/>
+ * Objects are created and deleted here too, and tracked in {@link #resources}. Texture images can be
+ * spread over frames through {@link #uploads}.
+ * <p/>
+ * Errors are checked according to the {@link GLErrorCheck} policy: {@link #checkError()} after calls
+ * worth checking, {@link #endFrame()} once a frame is drawn.
+ */
+class GLState {
+
+    // texture units tracked, GLES 2.0 guarantees 8 for the fragment shader
+    public static final int TEXTURE_UNITS = 8;
+    // vertex attribute arrays tracked (bits of the attribute mask), GLES 2.0 guarantees 8
+    public static final int VERTEX_ATTRIBS = 16;
+
+    public final GLErrorCheck errorCheck;
+    public final GLResources resources = new GLResources();
+    public final TextureUploader uploads = new TextureUploader(this);
+    public int issued;                  // GL calls passed to the driver since resetStats()
+    public int elided;                  // redundant state changes skipped since resetStats()
+
+    private int program;
+    private int activeUnit;             // index of the active unit, not GL_TEXTURE0-based
+    private final int[] textures = new int[TEXTURE_UNITS];
+    private int arrayBuffer;
+    private int elementArrayBuffer;
+    private int attribMask;             // bit i set if vertex attribute array i is enabled
+    private int capabilities;           // bits of enabled capabilities, see capabilityBit()
+    private int blendSrc = -1, blendDst = -1;
+
+    public GLState(GLErrorCheck errorCheck) {
+        this.errorCheck = errorCheck;
+    }
+
+    public void resetStats() {
+        issued = 0;
+        elided = 0;
+    }
+
+    //--Errors--//
+
+    public void checkError() {
+        errorCheck.check("unnamed");
+    }
+
+    public void checkError(String operation) {
+        errorCheck.check(operation);
+    }
+
+    public void endFrame() {
+        errorCheck.endFrame();
+    }
+
+    //--Programs--//
+
+    public void useProgram(int program) {
+        if (this.program == program) {
+            elided++;
+            return;
+        }
+        GLES20.glUseProgram(program);
+        this.program = program;
+        issued++;
+    }
+
+    public int createProgram(String label) {
+        final int program = GLES20.glCreateProgram();
+        resources.register(GLResources.PROGRAM, program, label);
+        issued++;
+        return program;
+    }
+
+    public void deleteProgram(int program) {
+        GLES20.glDeleteProgram(program);
+        resources.unregister(GLResources.PROGRAM, program);
+        issued++;
+        // deleting the current program keeps it in use until another one is made current,
+        // so the cached value stays right and it is simply never elided to again
+    }
+
+    // type - GL_VERTEX_SHADER or GL_FRAGMENT_SHADER
+    public int createShader(int type, String label) {
+        final int shader = GLES20.glCreateShader(type);
+        resources.register(GLResources.SHADER, shader, label);
+        issued++;
+        return shader;
+    }
+
+    public void deleteShader(int shader) {
+        GLES20.glDeleteShader(shader);
+        resources.unregister(GLResources.SHADER, shader);
+        issued++;
+    }
+
+    //--Textures--//
+
+    // unit - texture unit index, 0 for GL_TEXTURE0
+    public void activeTexture(int unit) {
+        if (activeUnit == unit) {
+            elided++;
+            return;
+        }
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        activeUnit = unit;
+        issued++;
+    }
+
+    // Binds a GL_TEXTURE_2D texture to the active unit
+    public void bindTexture(int texture) {
+        if (textures[activeUnit] == texture) {
+            elided++;
+            return;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        textures[activeUnit] = texture;
+        issued++;
+    }
+
+    // Binds a GL_TEXTURE_2D texture to the given unit
+    public void bindTexture(int unit, int texture) {
+        activeTexture(unit);
+        bindTexture(texture);
+    }
+
+    public int genTexture(String label) {
+        final int[] handles = new int[1];
+        GLES20.glGenTextures(1, handles, 0);
+        resources.register(GLResources.TEXTURE, handles[0], label);
+        issued++;
+        return handles[0];
+    }
+
+    public void deleteTexture(int texture) {
+        GLES20.glDeleteTextures(1, new int[]{texture}, 0);
+        resources.unregister(GLResources.TEXTURE, texture);
+        uploads.cancel(texture);
+        issued++;
+        // a deleted texture is unbound from every unit
+        for (int i = 0; i < TEXTURE_UNITS; i++) {
+            if (textures[i] == texture)
+                textures[i] = 0;
+        }
+    }
+
+    // Allocates level 0 of the texture bound to the active unit, the contents are undefined
+    public void texImage2D(int width, int height, int format, int type, int bytes) {
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format, type, null);
+        resources.setBytes(GLResources.TEXTURE, textures[activeUnit], bytes);
+        issued++;
+    }
+
+    // Replaces full-width rows of level 0 of the texture bound to the active unit, reading from the
+    // position of pixels
+    public void texSubImage2D(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, width, height, format, type, pixels);
+        issued++;
+    }
+
+    public void pixelStore(int name, int value) {
+        GLES20.glPixelStorei(name, value);
+        issued++;
+    }
+
+    public void texParameter(int name, int value) {
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, name, value);
+        issued++;
+    }
+
+    //--Buffers--//
+
+    // target - GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER
+    public void bindBuffer(int target, int buffer) {
+        final boolean array = target == GLES20.GL_ARRAY_BUFFER;
+        if ((array ? arrayBuffer : elementArrayBuffer) == buffer) {
+            elided++;
+            return;
+        }
+        GLES20.glBindBuffer(target, buffer);
+        if (array)
+            arrayBuffer = buffer;
+        else
+            elementArrayBuffer = buffer;
+        issued++;
+    }
+
+    public int genBuffer(String label) {
+        final int[] handles = new int[1];
+        GLES20.glGenBuffers(1, handles, 0);
+        resources.register(GLResources.BUFFER, handles[0], label);
+        issued++;
+        return handles[0];
+    }
+
+    public void deleteBuffer(int buffer) {
+        GLES20.glDeleteBuffers(1, new int[]{buffer}, 0);
+        resources.unregister(GLResources.BUFFER, buffer);
+        issued++;
+        // a deleted buffer is unbound from its target
+        if (arrayBuffer == buffer)
+            arrayBuffer = 0;
+        if (elementArrayBuffer == buffer)
+            elementArrayBuffer = 0;
+    }
+
+    // Respecifies the storage of the buffer bound to target
+    public void bufferData(int target, int size, Buffer data, int usage) {
+        GLES20.glBufferData(target, size, data, usage);
+        resources.setBytes(GLResources.BUFFER,
+                target == GLES20.GL_ARRAY_BUFFER ? arrayBuffer : elementArrayBuffer, size);
+        issued++;
+    }
+
+    public void bufferSubData(int target, int offset, int size, Buffer data) {
+        GLES20.glBufferSubData(target, offset, size, data);
+        issued++;
+    }
+
+    //--Vertex Attributes--//
+
+    // Enables exactly the vertex attribute arrays whose bits are set in mask and disables the rest
+    public void useVertexAttribArrays(int mask) {
+        final int changed = attribMask ^ mask;
+        elided += Integer.bitCount(mask & ~changed);
+        for (int i = 0; i < VERTEX_ATTRIBS; i++) {
+            final int bit = 1 << i;
+            if ((changed & bit) == 0)
+                continue;
+            if ((mask & bit) != 0)
+                GLES20.glEnableVertexAttribArray(i);
+            else
+                GLES20.glDisableVertexAttribArray(i);
+            issued++;
+        }
+        attribMask = mask;
+    }
+
+    // Mask bit of an attribute location, 0 for a location the program does not have (-1)
+    public static int attribBit(int location) {
+        return location >= 0 ? 1 << location : 0;
+    }
+
+    public void vertexAttribPointer(int location, int size, int type, boolean normalized, int stride, int offset) {
+        GLES20.glVertexAttribPointer(location, size, type, normalized, stride, offset);
+        issued++;
+    }
+
+    // Client memory pointer, needs GL_ARRAY_BUFFER unbound
+    public void vertexAttribPointer(int location, int size, int type, boolean normalized, int stride, Buffer data) {
+        GLES20.glVertexAttribPointer(location, size, type, normalized, stride, data);
+        issued++;
+    }
+
+    //--Uniforms--//
+
+    public void uniform1i(int location, int value) {
+        GLES20.glUniform1i(location, value);
+        issued++;
+    }
+
+    public void uniform1f(int location, float value) {
+        GLES20.glUniform1f(location, value);
+        issued++;
+    }
+
+    public void uniform3fv(int location, float[] value) {
+        GLES20.glUniform3fv(location, 1, value, 0);
+        issued++;
+    }
+
+    public void uniform4fv(int location, float[] value) {
+        GLES20.glUniform4fv(location, 1, value, 0);
+        issued++;
+    }
+
+    public void uniformMatrix4fv(int location, int count, float[] value) {
+        GLES20.glUniformMatrix4fv(location, count, false, value, 0);
+        issued++;
+    }
+
+    //--Fixed Function State--//
+
+    public void enable(int capability) {
+        setCapability(capability, true);
+    }
+
+    public void disable(int capability) {
+        setCapability(capability, false);
+    }
+
+    private void setCapability(int capability, boolean enabled) {
+        final int bit = capabilityBit(capability);
+        if (bit != 0 && ((capabilities & bit) != 0) == enabled) {
+            elided++;
+            return;
+        }
+        if (enabled)
+            GLES20.glEnable(capability);
+        else
+            GLES20.glDisable(capability);
+        capabilities = enabled ? capabilities | bit : capabilities & ~bit;
+        issued++;
+    }
+
+    // Tracked capabilities, all disabled by default except dithering; others are never elided
+    private static int capabilityBit(int capability) {
+        switch (capability) {
+            case GLES20.GL_BLEND:
+                return 1;
+            case GLES20.GL_DEPTH_TEST:
+                return 1 << 1;
+            case GLES20.GL_CULL_FACE:
+                return 1 << 2;
+            case GLES20.GL_SCISSOR_TEST:
+                return 1 << 3;
+            default:
+                return 0;
+        }
+    }
+
+    public void blendFunc(int src, int dst) {
+        if (blendSrc == src && blendDst == dst) {
+            elided++;
+            return;
+        }
+        GLES20.glBlendFunc(src, dst);
+        blendSrc = src;
+        blendDst = dst;
+        issued++;
+    }
+
+    public void clearColor(float red, float green, float blue, float alpha) {
+        GLES20.glClearColor(red, green, blue, alpha);
+        issued++;
+    }
+
+    public void clear(int mask) {
+        GLES20.glClear(mask);
+        issued++;
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        GLES20.glViewport(x, y, width, height);
+        issued++;
+    }
+
+    //--Draws--//
+
+    // Indexed draw from the bound GL_ELEMENT_ARRAY_BUFFER
+    public void drawElements(int mode, int count, int offset) {
+        GLES20.glDrawElements(mode, count, GLES20.GL_UNSIGNED_SHORT, offset);
+        issued++;
+    }
+
+    // Indexed draw from client memory, needs GL_ELEMENT_ARRAY_BUFFER unbound
+    public void drawElements(int mode, int count, Buffer indices) {
+        GLES20.glDrawElements(mode, count, GLES20.GL_UNSIGNED_SHORT, indices);
+        issued++;
+    }
+
+    public void drawArrays(int mode, int first, int count) {
+        GLES20.glDrawArrays(mode, first, count);
+        issued++;
+    }
+
+    //--Release All--//
+    // D: delete every object still registered, logging each one as a leftover
+    // A: [none]
+    // R: the number of objects deleted
+    public int releaseAll() {
+        final int count = resources.getLiveCount();
+        for (int texture : resources.getLiveHandles(GLResources.TEXTURE)) {
+            Log.w(Utils.TAG, "Releasing leftover texture " + texture);
+            deleteTexture(texture);
+        }
+        for (int buffer : resources.getLiveHandles(GLResources.BUFFER)) {
+            Log.w(Utils.TAG, "Releasing leftover buffer " + buffer);
+            deleteBuffer(buffer);
+        }
+        for (int program : resources.getLiveHandles(GLResources.PROGRAM)) {
+            Log.w(Utils.TAG, "Releasing leftover program " + program);
+            deleteProgram(program);
+        }
+        for (int shader : resources.getLiveHandles(GLResources.SHADER)) {
+            Log.w(Utils.TAG, "Releasing leftover shader " + shader);
+            deleteShader(shader);
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "GLState{issued=" + issued + ", elided=" + elided + '}';
+    }
+}
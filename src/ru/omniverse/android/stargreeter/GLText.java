@@ -1,38 +1,26 @@
 package ru.omniverse.android.stargreeter;
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Typeface;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 import android.opengl.Matrix;
-import android.util.Log;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 @SuppressWarnings("UnusedDeclaration")
 class GLText {
 
     //--Constants--//
-    public final static int CHAR_START = 32;           // First Character (ASCII Code)
-    public final static int CHAR_END = 255;            // Last Character (ASCII Code)
-    public final static int CHAR_CNT = (((CHAR_END - CHAR_START) + 1) + 1);  // Character Count (Including Character to use for Unknown)
+    public final static int CHAR_UNKNOWN = GlyphTable.UNKNOWN;  // Index of the Unknown Character
 
-    public final static int CHAR_NONE = 32;            // Character to Use for Unknown (ASCII Code)
-    public final static int CHAR_UNKNOWN = (CHAR_CNT - 1);  // Index of the Unknown Character
-
-    public final static int FONT_SIZE_MIN = 6;         // Minumum Font Size (Pixels)
-    public final static int FONT_SIZE_MAX = 180;       // Maximum Font Size (Pixels)
-
-    public final static int CHAR_BATCH_SIZE = 24;     // Number of Characters to Render Per Batch
+    public final static int CHAR_BATCH_SIZE = 24;     // Number of Characters to Render Per Batch With a Matrix Per Character
     // must be the same as the size of u_MVPMatrix
     // in BatchTextProgram
-
-    private final char ansiTable[] = new char[256];
+    public final static int TEXT_BATCH_SIZE = 1024;   // Number of Characters to Render Per Batch With a Shared Matrix
+    public final static boolean HALF_POSITIONS = false;  // Half-Float Glyph Positions Where Supported (8 Bytes per Vertex)
 
     //--Members--//
     private final ResourceLoader mResourceLoader;
+    private final GLState mState;                      // Render State of the Context
     SpriteBatch batch;                                 // Batch Renderer
 
     int fontPadX, fontPadY;                            // Font Padding (Pixels; On Each Side, ie. Doubled on Both X+Y Axis)
@@ -42,43 +30,65 @@ class GLText {
     float fontDescent;                                 // Font Descent (Below Baseline; Pixels)
 
     int textureId;                                     // Font Texture ID [NOTE: Public for Testing Purposes Only!]
-    int textureSize;                                   // Texture Size for Font (Square) [NOTE: Public for Testing Purposes Only!]
+    int textureWidth, textureHeight;                   // Texture Size for Font [NOTE: Public for Testing Purposes Only!]
     TextureRegion textureRgn;                          // Full Texture Region
+    FontAtlas atlas;                                   // Atlas the Texture Was Loaded From
+    int[] levelIds = new int[0];                       // Textures of the Halved Copies (Level 1..)
+    int level;                                         // Level Drawn With (0 = Font Texture)
+    float fillRatio;                                   // Texture Area Covered by Glyphs
 
     float charWidthMax;                                // Character Width (Maximum; Pixels)
     float charHeight;                                  // Character Height (Maximum; Pixels)
-    final float[] charWidths;                          // Width of Each Character (Actual; Pixels)
+    GlyphTable glyphs;                                 // Character to Glyph Index Lookup
+    float[] charWidths;                                // Width of Each Character (Advance; Pixels)
     TextureRegion[] charRgn;                           // Region of Each Character (Texture Coordinates)
-    int cellWidth, cellHeight;                         // Character Cell Width/Height
-    int rowCnt, colCnt;                                // Number of Rows/Columns
+    int[] glyphWidths, glyphHeights;                   // Size of Each Glyph Quad (Pixels)
+    float[] glyphCenterX, glyphCenterY;                // Center of Each Glyph Quad (From Pen at Text Bottom; Pixels)
 
     float scaleX, scaleY;                              // Font Scale (X,Y Axis)
     float spaceX;                                      // Additional (X,Y Axis) Spacing (Unscaled)
 
-    //private Program mProgram;                           // OpenGL Program object
-    private int mProgramHandle;
+    private final ShaderProgram mProgram;              // OpenGL Program object (Reflected)
+    private final int mProgramHandle;
     private int mColorHandle;                           // Shader color handle
     private int mTextureUniformHandle;                 // Shader texture handle
+    private final float[] mColor = new float[4];       // Color uniform value
+
+    private final boolean mDistanceField;              // Distance Field Atlas and Shader
+    private int mSmoothingHandle;                      // Edge Smoothing (Distance Units) Handle
+    private int mOutlineColorHandle, mOutlineWidthHandle;  // Outline Color/Width Handles
+    private int mGlowColorHandle, mGlowWidthHandle;    // Glow Color/Width Handles
+    private float mSmoothing = 0.7f / (2 * FontAtlas.SDF_SPREAD);  // Edge Smoothing (Distance Units; 1 Texel per Pixel)
+    private final float[] mOutlineColor = new float[4];  // Outline Color (Transparent = None)
+    private float mOutlineWidth;                       // Outline Width (Distance Units)
+    private final float[] mGlowColor = new float[4];   // Glow Color (Transparent = None)
+    private float mGlowWidth;                          // Glow Width (Distance Units)
 
 
     //--Constructor--//
     // D: save program + asset manager, create arrays, and initialize the members
-    public GLText(ResourceLoader resourceLoader) {
+    // A: distanceField - draw distance field atlases (FontAtlas.DISTANCE_FIELD) instead of coverage atlases
+    public GLText(ResourceLoader resourceLoader, GLState state) {
+        this(resourceLoader, state, false);
+    }
+
+    public GLText(ResourceLoader resourceLoader, GLState state, boolean distanceField) {
         mResourceLoader = resourceLoader;
+        mState = state;
+        mDistanceField = distanceField;
 //        if (program == null) {
 //            program = new BatchTextProgram();
 //            program.init();
 //        }
 
-        initAnsiTable();
-
-        mProgramHandle = Utils.createShaderProgram(resourceLoader, R.raw.font_vertex, R.raw.font_fragment,
-                new String[]{"a_Position", "a_TexCoordinate", "a_MVPMatrixIndex"});
-
-        batch = new SpriteBatch(CHAR_BATCH_SIZE, mProgramHandle);  // Create Sprite Batch (with Defined Size)
+        // packed vertices without an MVP index, every glyph uses the shared matrix
+        VertexFormat format = VertexFormat.packed(false, HALF_POSITIONS);
+        mProgram = Utils.createShaderProgram(state, resourceLoader, R.raw.font_vertex,
+                distanceField ? R.raw.font_fragment_sdf : R.raw.font_fragment,
+                format.getAttributes());
+        mProgramHandle = mProgram.handle;
 
-        charWidths = new float[CHAR_CNT];               // Create the Array of Character Widths
-        charRgn = new TextureRegion[CHAR_CNT];          // Create the Array of Character Regions
+        batch = new SpriteBatch(state, TEXT_BATCH_SIZE, mProgram, true, format, Vertices.STORAGE_STATIC);  // Create Sprite Batch (Shared Matrix, Mesh Kept on GPU)
 
         // initialize remaining members
         fontPadX = 0;
@@ -89,74 +99,81 @@ class GLText {
         fontDescent = 0.0f;
 
         textureId = -1;
-        textureSize = 0;
+        textureWidth = 0;
+        textureHeight = 0;
 
         charWidthMax = 0;
         charHeight = 0;
 
-        cellWidth = 0;
-        cellHeight = 0;
-        rowCnt = 0;
-        colCnt = 0;
-
         scaleX = 1.0f;                                  // Default Scale = 1 (Unscaled)
         scaleY = 1.0f;                                  // Default Scale = 1 (Unscaled)
         spaceX = 0.0f;
 
         // Initialize the color and texture handles
-        mColorHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_Color");
-        mTextureUniformHandle = GLES20.glGetUniformLocation(mProgramHandle, "u_Texture");
-    }
-
-    private void initAnsiTable() {
-        final String russianSequence = "АБВГДЕЖЗИЙКЛМНОПРСТУФХЦЧШЩЪЫЬЭЮЯабвгдежзийклмнопрстуфхцчшщъыьэюя";
-        int i = 0;
-        for (; i < 32; ++i) {
-            ansiTable[i] = 0;
-        }
-        for (; i < 192; ++i) {
-            ansiTable[i] = (char) i;
-        }
-        for (; i < 256; ++i) {
-            ansiTable[i] = russianSequence.charAt(i - 192);
+        mColorHandle = mProgram.getUniformLocation("u_Color");
+        mTextureUniformHandle = mProgram.getUniformLocation("u_Texture");
+
+        // uniforms are program state, the sampler always reads texture unit 0
+        mState.useProgram(mProgramHandle);
+        mState.uniform1i(mTextureUniformHandle, 0);
+
+        if (distanceField) {
+            mSmoothingHandle = mProgram.getUniformLocation("u_Smoothing");
+            mOutlineColorHandle = mProgram.getUniformLocation("u_OutlineColor");
+            mOutlineWidthHandle = mProgram.getUniformLocation("u_OutlineWidth");
+            mGlowColorHandle = mProgram.getUniformLocation("u_GlowColor");
+            mGlowWidthHandle = mProgram.getUniformLocation("u_GlowWidth");
         }
-        ansiTable[168] = 'Ё';
-        ansiTable[184] = 'Ё';
     }
 
-    private static int loadTexture(Bitmap bitmap) {
-        final int[] textureHandle = new int[1];
-
-        GLES20.glGenTextures(1, textureHandle, 0);
-
-        if (textureHandle[0] != 0) {
-//	        final BitmapFactory.Options options = new BitmapFactory.Options();
-//	        options.inScaled = false;   // No pre-scaling
+    // atlas - its pixels are queued for upload
+    private int loadTexture(FontAtlas atlas) {
+        // distances must be interpolated, coverage is sampled near 1:1
+        final int textureHandle = genTexture(mDistanceField ? GLES20.GL_LINEAR : GLES20.GL_NEAREST);
 
-            // Read in the resource
-//	        final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+        // Queue the image for the bound texture, it is filled over the next frames.
+        mState.uploads.enqueue(textureHandle, atlas.pixels, atlas.textureWidth, atlas.textureHeight,
+                GLES20.GL_ALPHA, GLES20.GL_UNSIGNED_BYTE, 1);
 
-            // Bind to the texture in OpenGL
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
-
-            // Set filtering
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);  // Set U Wrapping
-            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);  // Set V Wrapping
-
-            // Load the bitmap into the bound texture.
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        return textureHandle;
+    }
 
-            // Recycle the bitmap, since its data has been loaded into OpenGL.
-            bitmap.recycle();
+    // atlas - its levels are queued for upload after the atlas itself
+    private int[] loadLevels(FontAtlas atlas) {
+        final int[] ids = new int[atlas.levels != null ? atlas.levels.length : 0];
+        for (int i = 0; i < ids.length; i++) {
+            // a level is only drawn while minified, filtering keeps the halving smooth
+            ids[i] = genTexture(GLES20.GL_LINEAR);
+            mState.uploads.enqueue(ids[i], atlas.levels[i], atlas.levelWidth(i + 1), atlas.levelHeight(i + 1),
+                    GLES20.GL_ALPHA, GLES20.GL_UNSIGNED_BYTE, 1);
         }
+        return ids;
+    }
 
-        if (textureHandle[0] == 0) {
+    // Creates and binds a font texture
+    private int genTexture(int minFilter) {
+        final int textureHandle = mState.genTexture("font atlas");
+        if (textureHandle == 0) {
             throw new RuntimeException("Error loading texture.");
         }
 
-        return textureHandle[0];
+        // Bind to the texture in OpenGL
+        mState.bindTexture(0, textureHandle);
+
+        // Set filtering
+        mState.texParameter(GLES20.GL_TEXTURE_MIN_FILTER, minFilter);
+        mState.texParameter(GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        mState.texParameter(GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);  // Set U Wrapping
+        mState.texParameter(GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);  // Set V Wrapping
+        return textureHandle;
+    }
+
+    private void deleteLevels() {
+        for (int id : levelIds) {
+            mState.deleteTexture(id);
+        }
+        levelIds = new int[0];
+        level = 0;
     }
 
     //--Load Font--//
@@ -168,112 +185,115 @@ class GLText {
     //    size - Requested pixel size of font (height)
     //    padX, padY - Extra padding per character (X+Y Axis); to prevent overlapping characters.
     public boolean load(String name, int size, int padX, int padY) {
+        return load(name, size, padX, padY, "");
+    }
 
-        // setup requested values
-        fontPadX = padX;                                // Set Requested X Axis Padding
-        fontPadY = padY;                                // Set Requested Y Axis Padding
-
-        // load the font and setup paint instance for drawing
-        Typeface tf = mResourceLoader.loadCachedFont(name);  // Create the Typeface from Font File
-        Paint paint = new Paint();                      // Create Android Paint Instance
-        paint.setAntiAlias(true);                     // Enable Anti Alias
-        paint.setTextSize(size);                      // Set Text Size
-        paint.setColor(0xffffffff);                   // Set ARGB (White, Opaque)
-        paint.setTypeface(tf);                        // Set Typeface
-
-        // get font metrics
-        Paint.FontMetrics fm = paint.getFontMetrics();  // Get Font Metrics
-        fontHeight = (float) Math.ceil(Math.abs(fm.bottom) + Math.abs(fm.top));  // Calculate Font Height
-        fontAscent = (float) Math.ceil(Math.abs(fm.ascent));  // Save Font Ascent
-        fontDescent = (float) Math.ceil(Math.abs(fm.descent));  // Save Font Descent
-
-        // determine the width of each character (including unknown character)
-        // also determine the maximum character width
-        char[] s = new char[2];                         // Create Character Array
-        charWidthMax = charHeight = 0;                  // Reset Character Width/Height Maximums
-        float[] w = new float[2];                       // Working Width Value
-        int cnt = 0;                                    // Array Counter
-        for (char c = CHAR_START; c <= CHAR_END; c++) {  // FOR Each Character
-            s[0] = ansiTable[(int) c];
-            paint.getTextWidths(s, 0, 1, w);           // Get Character Bounds
-            charWidths[cnt] = w[0];                      // Get Width
-            if (charWidths[cnt] > charWidthMax)        // IF Width Larger Than Max Width
-                charWidthMax = charWidths[cnt];           // Save New Max Width
-            cnt++;                                       // Advance Array Counter
-        }
-        s[0] = CHAR_NONE;                               // Set Unknown Character
-        paint.getTextWidths(s, 0, 1, w);              // Get Character Bounds
-        charWidths[cnt] = w[0];                         // Get Width
-        if (charWidths[cnt] > charWidthMax)           // IF Width Larger Than Max Width
-            charWidthMax = charWidths[cnt];              // Save New Max Width
-
-        // set character height to font height
-        charHeight = fontHeight;                        // Set Character Height
-
-        // find the maximum size, validate, and setup cell sizes
-        cellWidth = (int) charWidthMax + (2 * fontPadX);  // Set Cell Width
-        cellHeight = (int) charHeight + (2 * fontPadY);  // Set Cell Height
-        int maxSize = cellWidth > cellHeight ? cellWidth : cellHeight;  // Save Max Size (Width/Height)
-        if (maxSize < FONT_SIZE_MIN || maxSize > FONT_SIZE_MAX)  // IF Maximum Size Outside Valid Bounds
+    //    text - Extra characters to include besides the default Windows-1251 set (any BMP script)
+    public boolean load(String name, int size, int padX, int padY, CharSequence text) {
+        return load(name, size, padX, padY, text, FontAtlas.GLYPHS_DEFAULT);
+    }
+
+    //    flags - FontAtlas.GLYPHS_DEFAULT to include Windows-1251, otherwise only the characters of text;
+    //            FontAtlas.DISTANCE_FIELD must match the constructor
+    public boolean load(String name, int size, int padX, int padY, CharSequence text, int flags) {
+        FontAtlas atlas = mResourceLoader.loadFontAtlas(name, size, padX, padY, text, flags);  // Cached or Rasterized
+        if (atlas == null)                              // IF Font Does Not Fit
             return false;                                // Return Error
+        load(atlas);
+        return true;                                    // Return Success
+    }
 
-        // set texture size based on max font size (width or height)
-        // NOTE: these values are fixed, based on the defined characters. when
-        // changing start/end characters (CHAR_START/CHAR_END) this will need adjustment too!
-        if (maxSize <= 24)                            // IF Max Size is 18 or Less
-            textureSize = 256;                           // Set 256 Texture Size
-        else if (maxSize <= 40)                       // ELSE IF Max Size is 40 or Less
-            textureSize = 512;                           // Set 512 Texture Size
-        else if (maxSize <= 80)                       // ELSE IF Max Size is 80 or Less
-            textureSize = 1024;                          // Set 1024 Texture Size
-        else                                            // ELSE IF Max Size is Larger Than 80 (and Less than FONT_SIZE_MAX)
-            textureSize = 2048;                          // Set 2048 Texture Size
-
-        // create an empty bitmap (alpha only)
-        Bitmap bitmap = Bitmap.createBitmap(textureSize, textureSize, Bitmap.Config.ALPHA_8);  // Create Bitmap
-        Canvas canvas = new Canvas(bitmap);           // Create Canvas for Rendering to Bitmap
-        bitmap.eraseColor(0x00000000);                // Set Transparent Background (ARGB)
-
-        // calculate rows/columns
-        // NOTE: while not required for anything, these may be useful to have :)
-        colCnt = textureSize / cellWidth;               // Calculate Number of Columns
-        rowCnt = (int) Math.ceil((float) CHAR_CNT / (float) colCnt);  // Calculate Number of Rows
-
-        // render each of the characters to the canvas (ie. build the font map)
-        float x = fontPadX;                             // Set Start Position (X)
-        float y = (cellHeight - 1) - fontDescent - fontPadY;  // Set Start Position (Y)
-        for (char c = CHAR_START; c <= CHAR_END; c++) {  // FOR Each Character
-            s[0] = ansiTable[(int) c];
-            canvas.drawText(s, 0, 1, x, y, paint);     // Draw Character
-            x += cellWidth;                              // Move to Next Character
-            if ((x + cellWidth - fontPadX) > textureSize) {  // IF End of Line Reached
-                x = fontPadX;                             // Set X for New Row
-                y += cellHeight;                          // Move Down a Row
-            }
+    //--Load Font Atlas--//
+    // D: take the glyphs and metrics of a rasterized atlas and upload its pixels to a texture;
+    //    the atlas is kept, a font of a new context can be loaded from getAtlas() again
+    //    NOTE: the atlas can be built on any thread, this must run on the GL thread
+    // A: atlas - the atlas from ResourceLoader.loadFontAtlas()
+    // R: [none]
+    public void load(FontAtlas atlas) {
+        if (atlas.isDistanceField() != mDistanceField)
+            throw new IllegalArgumentException("Atlas " + atlas + " does not match the shader of the font");
+        fontPadX = atlas.fontPadX;                      // Set Requested X Axis Padding
+        fontPadY = atlas.fontPadY;                      // Set Requested Y Axis Padding
+
+        fontHeight = atlas.fontHeight;                  // Save Font Height
+        fontAscent = atlas.fontAscent;                  // Save Font Ascent
+        fontDescent = atlas.fontDescent;                // Save Font Descent
+
+        glyphs = atlas.glyphs;                          // Save Glyph Lookup
+        charWidths = atlas.charWidths;                  // Save Character Widths
+        charRgn = atlas.charRgn;                        // Save Character Regions
+        charWidthMax = atlas.charWidthMax;              // Save Max Width
+        charHeight = atlas.charHeight;                  // Save Character Height
+        glyphWidths = atlas.glyphWidths;                // Save Glyph Quad Widths
+        glyphHeights = atlas.glyphHeights;              // Save Glyph Quad Heights
+        glyphCenterX = atlas.glyphCenterX;              // Save Glyph Quad Centers (X)
+        glyphCenterY = atlas.glyphCenterY;              // Save Glyph Quad Centers (Y)
+        textureWidth = atlas.textureWidth;              // Save Texture Width
+        textureHeight = atlas.textureHeight;            // Save Texture Height
+        fillRatio = atlas.fillRatio;                    // Save Fill Ratio
+
+        // save the pixels in a texture, replacing the one of a previous load
+        if (textureId > 0)
+            mState.deleteTexture(textureId);
+        deleteLevels();
+        textureId = loadTexture(atlas);
+        levelIds = loadLevels(atlas);
+        this.atlas = atlas;                             // Keep the Pixels for a Lost Context
+
+        // create full texture region
+        textureRgn = new TextureRegion(textureWidth, textureHeight, 0, 0, textureWidth, textureHeight);  // Create Full Texture Region
+    }
+
+    //--Get Atlas--//
+    // D: return the atlas of the font texture, it can be loaded into a font of another context
+    public FontAtlas getAtlas() {
+        return atlas;
+    }
+
+    //--Get Texture Bytes--//
+    // D: return the memory of the font texture and its levels (alpha only)
+    public int getTextureBytes() {
+        int bytes = textureWidth * textureHeight;
+        for (int i = 1; i <= levelIds.length; i++) {
+            bytes += (textureWidth >> i) * (textureHeight >> i);
         }
-        s[0] = CHAR_NONE;                               // Set Character to Use for NONE
-        canvas.drawText(s, 0, 1, x, y, paint);        // Draw Character
-
-        // save the bitmap in a texture
-        textureId = loadTexture(bitmap);
-
-        // setup the array of character texture regions
-        x = 0;                                          // Initialize X
-        y = 0;                                          // Initialize Y
-        for (int c = 0; c < CHAR_CNT; c++) {         // FOR Each Character (On Texture)
-            charRgn[c] = new TextureRegion(textureSize, textureSize, x, y, cellWidth - 1, cellHeight - 1);  // Create Region for Character
-            x += cellWidth;                              // Move to Next Char (Cell)
-            if (x + cellWidth > textureSize) {
-                x = 0;                                    // Reset X Position to Start
-                y += cellHeight;                          // Move to Next Row (Cell)
-            }
+        return bytes;
+    }
+
+    //--Is Uploaded--//
+    // D: check whether the font texture has been filled and can be drawn with
+    // A: [none]
+    // R: false while the atlas or one of its levels is still queued for upload
+    public boolean isUploaded() {
+        if (textureId <= 0 || mState.uploads.isPending(textureId))
+            return false;
+        for (int id : levelIds) {
+            if (mState.uploads.isPending(id))
+                return false;
         }
+        return true;
+    }
 
-        // create full texture region
-        textureRgn = new TextureRegion(textureSize, textureSize, 0, 0, textureSize, textureSize);  // Create Full Texture Region
+    //--Has Glyphs--//
+    // D: check whether the loaded font has a glyph for every character of a text
+    // A: text - the characters to check
+    // R: true if nothing in the text would be drawn as the unknown character
+    public boolean hasGlyphs(CharSequence text) {
+        return glyphs != null && glyphs.containsAll(text);
+    }
 
-        // return success
-        return true;                                    // Return Success
+    //--Release--//
+    // D: delete the font texture, the program and the batch buffers; the instance can not be used afterwards
+    // A: [none]
+    // R: [none]
+    public void release() {
+        if (textureId > 0)
+            mState.deleteTexture(textureId);
+        textureId = -1;
+        deleteLevels();
+        atlas = null;
+        batch.release();
+        mState.deleteProgram(mProgramHandle);
     }
 
     //--Begin/End Text Drawing--//
@@ -297,24 +317,73 @@ class GLText {
     }
 
     void initDraw(float red, float green, float blue, float alpha) {
-        GLES20.glUseProgram(mProgramHandle); // specify the program to use
+        mState.useProgram(mProgramHandle); // specify the program to use
 
         // set color TODO: only alpha component works, text is always black #BUG
-        float[] color = {red, green, blue, alpha};
-        GLES20.glUniform4fv(mColorHandle, 1, color, 0);
-        GLES20.glEnableVertexAttribArray(mColorHandle);
+        mColor[0] = red;
+        mColor[1] = green;
+        mColor[2] = blue;
+        mColor[3] = alpha;
+        mState.uniform4fv(mColorHandle, mColor);
+
+        // Bind the texture of the level to texture unit 0, the sampler reads from it
+        mState.bindTexture(0, level == 0 ? textureId : levelIds[level - 1]);
+
+        if (mDistanceField) {
+            mState.uniform1f(mSmoothingHandle, mSmoothing);
+            mState.uniform4fv(mOutlineColorHandle, mOutlineColor);
+            mState.uniform1f(mOutlineWidthHandle, mOutlineWidth);
+            mState.uniform4fv(mGlowColorHandle, mGlowColor);
+            mState.uniform1f(mGlowWidthHandle, mGlowWidth);
+        }
+    }
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);  // Set the active texture unit to texture unit 0
+    //--Distance Field Parameters--//
+    // D: set how the edges of a distance field font are drawn, ignored for coverage fonts;
+    //    the pixel scale also picks the level drawn with for any font
+    // A: pixelsPerTexel - screen pixels covered by one atlas texel at the current zoom (level 0 texel)
+    //    red, green, blue, alpha - color of the outline/glow, alpha 0 for none
+    //    width - outline/glow width outside the glyph edge (atlas texels, up to FontAtlas.SDF_SPREAD)
+    // R: [none]
+    public void setPixelScale(float pixelsPerTexel) {
+        // smooth over about one screen pixel, in distance units (0.5 per SDF_SPREAD texels)
+        // levels keep distances in level 0 texels, so the smoothing does not depend on the level
+        mSmoothing = Math.min(0.5f, 0.7f / (2 * FontAtlas.SDF_SPREAD * Math.max(pixelsPerTexel, 0.001f)));
+
+        // the smallest level whose texels are not larger than a pixel
+        level = 0;
+        while (level < levelIds.length && pixelsPerTexel * (2 << level) <= 1)
+            level++;
+    }
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId); // Bind the texture to this unit
+    public void setOutline(float red, float green, float blue, float alpha, float width) {
+        mOutlineColor[0] = red;
+        mOutlineColor[1] = green;
+        mOutlineColor[2] = blue;
+        mOutlineColor[3] = alpha;
+        mOutlineWidth = Math.min(width, FontAtlas.SDF_SPREAD) / (2.0f * FontAtlas.SDF_SPREAD);
+    }
+
+    public void setGlow(float red, float green, float blue, float alpha, float width) {
+        mGlowColor[0] = red;
+        mGlowColor[1] = green;
+        mGlowColor[2] = blue;
+        mGlowColor[3] = alpha;
+        mGlowWidth = Math.min(width, FontAtlas.SDF_SPREAD) / (2.0f * FontAtlas.SDF_SPREAD);
+    }
 
-        // Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0
-        GLES20.glUniform1i(mTextureUniformHandle, 0);
+    public boolean isDistanceField() {
+        return mDistanceField;
+    }
+
+    //--Get Level--//
+    // D: return the level picked by the last setPixelScale(), 0 being the font texture itself
+    public int getLevel() {
+        return level;
     }
 
     public void end() {
         batch.endBatch();                               // End Batch
-        GLES20.glDisableVertexAttribArray(mColorHandle);
     }
 
     //--Draw Text--//
@@ -324,11 +393,7 @@ class GLText {
     //    angleDeg - angle to rotate the text
     // R: [none]
     public void draw(String text, float x, float y, float angleDeg) {
-        float chrHeight = cellHeight * scaleY;          // Calculate Scaled Character Height
-        float chrWidth = cellWidth * scaleX;            // Calculate Scaled Character Width
         int len = text.length();                        // Get String Length
-        x += (chrWidth / 2.0f) - (fontPadX * scaleX);  // Adjust Start X
-        y += (chrHeight / 2.0f) - (fontPadY * scaleY);  // Adjust Start Y
 
         // create a model matrix based on x, y and angleDeg
         float[] modelMatrix = new float[16];
@@ -340,28 +405,59 @@ class GLText {
         letterX = letterY = 0;
 
         for (int i = 0; i < len; i++) {              // FOR Each Character in String
-            int c = indexInAnsi(text.charAt(i)) - CHAR_START;
-            if (c < 0 || c >= CHAR_CNT)                // IF Character Not In Font
-                c = CHAR_UNKNOWN;                         // Set to Unknown Character Index
+            int c = glyphs.indexOf(text.charAt(i));     // Get Glyph Index (Unknown Character if Not In Font)
 //            Log.d(Utils.TAG, "width for '" + text.charAt(i) + "' is " + charWidths[c] +  " " + c);
 
-            //TODO: optimize - applying the same model matrix to all the characters in the string
-            batch.drawSprite(letterX, letterY, chrWidth, chrHeight, charRgn[c], modelMatrix);  // Draw the Character
+            batch.drawSprite(letterX + glyphCenterX[c] * scaleX, letterY + glyphCenterY[c] * scaleY,
+                    glyphWidths[c] * scaleX, glyphHeights[c] * scaleY, charRgn[c], modelMatrix);  // Draw the Character Quad
             letterX += (charWidths[c] + spaceX) * scaleX;    // Advance X Position by Scaled Character Width
         }
     }
 
-    private int indexInAnsi(char c) {
-        for (int q = 0; q < 256; ++q) {
-            if (ansiTable[q] == c) {
-                return q;
-            }
+    public void draw(String text, float x, float y) {
+        draw(text, x, y, 0);
+    }
+
+    //--Build Text Mesh--//
+    // D: write the sprites of a string CENTERED at x,y into a mesh for drawMesh()
+    //    NOTE: the text is laid out exactly as drawC() does, with no rotation
+    // A: mesh - the buffer to write to, allocated with newMesh()
+    //    sprite - index of the first sprite to write
+    //    text - the string to write
+    //    x, y - the x,y position of the text center
+    // R: the index of the sprite after the last written one
+    public int meshC(ByteBuffer mesh, int sprite, String text, float x, float y) {
+        x -= getLength(text) / 2.0f;                    // Center X
+        y -= getCharHeight() / 2.0f;                    // Center Y
+
+        final int spriteSize = SpriteBatch.VERTICES_PER_SPRITE * batch.format.stride;
+        int len = text.length();                        // Get String Length
+        for (int i = 0; i < len; i++) {              // FOR Each Character in String
+            int c = glyphs.indexOf(text.charAt(i));     // Get Glyph Index (Unknown Character if Not In Font)
+            SpriteBatch.putSprite(batch.format, mesh, sprite * spriteSize, x + glyphCenterX[c] * scaleX,
+                    y + glyphCenterY[c] * scaleY, glyphWidths[c] * scaleX, glyphHeights[c] * scaleY, charRgn[c],
+                    batch.mvpIndex(sprite), null);
+            sprite++;
+            x += (charWidths[c] + spaceX) * scaleX;    // Advance X Position by Scaled Character Width
         }
-        return 0;
+        return sprite;
     }
 
-    public void draw(String text, float x, float y) {
-        draw(text, x, y, 0);
+    //--Draw Text Mesh--//
+    // D: draw a mesh built with meshC() using the matrix given at begin()
+    // A: mesh - the prebuilt vertex data
+    //    spriteCount - the number of sprites in the mesh
+    // R: [none]
+    public void drawMesh(ByteBuffer mesh, int spriteCount) {
+        batch.drawMesh(mesh, spriteCount);
+    }
+
+    //--New Text Mesh--//
+    // D: allocate a mesh for meshC() in the vertex format of this font
+    // A: spriteCount - the number of characters the mesh holds
+    // R: the mesh buffer
+    public ByteBuffer newMesh(int spriteCount) {
+        return batch.newMesh(spriteCount);
     }
 
     //--Draw Text Centered--//
@@ -441,9 +537,7 @@ class GLText {
         float len = 0.0f;                               // Working Length
         int strLen = text.length();                     // Get String Length (Characters)
         for (int i = 0; i < strLen; i++) {           // For Each Character in String (Except Last
-            int c = indexInAnsi(text.charAt(i)) - CHAR_START;        // Calculate Character Index (Offset by First Char in Font)
-            if (c < 0 || c >= CHAR_CNT)                // IF Character Not In Font
-                c = CHAR_UNKNOWN;                         // Set to Unknown Character Index
+            int c = glyphs.indexOf(text.charAt(i));     // Get Glyph Index (Unknown Character if Not In Font)
             len += (charWidths[c] * scaleX);           // Add Scaled Character Width to Total Length
         }
         len += (strLen > 1 ? ((strLen - 1) * spaceX) * scaleX : 0);  // Add Space Length
@@ -457,9 +551,7 @@ class GLText {
     // A: chr - the character to get width for
     // R: the requested character size (scaled)
     public float getCharWidth(char chr) {
-        int c = indexInAnsi(chr) - CHAR_START;        // Calculate Character Index (Offset by First Char in Font)
-        if (c < 0 || c >= CHAR_CNT)                // IF Character Not In Font
-            c = CHAR_UNKNOWN;                         // Set to Unknown Character Index
+        int c = glyphs.indexOf(chr);                  // Get Glyph Index (Unknown Character if Not In Font)
         return (charWidths[c] * scaleX);              // Return Scaled Character Width
     }
 
@@ -491,6 +583,28 @@ class GLText {
         batch.setLightPosition(x, y, z);
     }
 
+    //--Batch Statistics--//
+    // D: draw calls and MVP matrix uploads since the last resetStats()
+    public void resetStats() {
+        batch.resetStats();
+    }
+
+    public int getDrawCalls() {
+        return batch.drawCalls;
+    }
+
+    public int getMatrixUploads() {
+        return batch.matrixUploads;
+    }
+
+    public int getVertexBytesCopied() {
+        return batch.vertices.bytesCopied;
+    }
+
+    public int getVertexBytesUploaded() {
+        return batch.vertices.bytesUploaded;
+    }
+
     //--Draw Font Texture--//
     // D: draw the entire font texture (NOTE: for testing purposes only)
     // A: width, height - the width and height of the area to draw to. this is used
@@ -502,8 +616,8 @@ class GLText {
         batch.beginBatch(vpMatrix);                  // Begin Batch (Bind Texture)
         float[] idMatrix = new float[16];
         Matrix.setIdentityM(idMatrix, 0);
-        batch.drawSprite(width - (textureSize / 2), height - (textureSize / 2),
-                textureSize, textureSize, textureRgn, idMatrix);  // Draw
+        batch.drawSprite(width - (textureWidth / 2), height - (textureHeight / 2),
+                textureWidth, textureHeight, textureRgn, idMatrix);  // Draw
         batch.endBatch();                               // End Batch
     }
 }
@@ -0,0 +1,28 @@
+package ru.omniverse.android.stargreeter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures the ink of the glyphs of one font at one size and draws them, for {@link FontAtlas#rasterize}:
+ * Paint and Canvas on the device, AWT in the DeckCompiler. Everything else about an atlas, its metrics
+ * and layout included, is the same for both.
+ */
+interface GlyphRenderer {
+
+    // Ink bounds of a character from the pen on the baseline, y down: left, top, right, bottom (whole pixels)
+    void getBounds(char c, int[] bounds);
+
+    // An empty image to draw glyphs into
+    Surface createSurface(int width, int height);
+
+    interface Surface {
+
+        // Draws characters with the pen at (x, y) on the baseline, y down. may be called on several threads
+        // at once with glyphs that do not overlap
+        void draw(char[] chars, float[] x, float[] y, int count);
+
+        // Writes the coverage of every pixel into a buffer of the atlas from its position, rows of width
+        // bytes; the surface is not drawn to afterwards
+        void finish(ByteBuffer pixels);
+    }
+}
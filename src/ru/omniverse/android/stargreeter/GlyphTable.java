@@ -0,0 +1,99 @@
+package ru.omniverse.android.stargreeter;
+
+/**
+ * Maps BMP characters to glyph indices of a font atlas in constant time.
+ * <p/>
+ * A two-level page table: the high byte of a character selects a page, the low byte selects
+ * an entry. Pages without any glyph share a single empty page, so a lookup is always two
+ * array reads with no branches. Index {@link #UNKNOWN} is reserved for unknown characters.
+ */
+class GlyphTable {
+
+    public static final int UNKNOWN = 0;
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int PAGE_COUNT = (Character.MAX_VALUE + 1) >> PAGE_BITS;
+
+    private static final char[] EMPTY_PAGE = new char[PAGE_SIZE];
+
+    private final char[][] pages = new char[PAGE_COUNT][];
+    // glyph index -> character, slot 0 is the unknown glyph
+    private char[] chars = new char[PAGE_SIZE];
+    private int size = 1;
+
+    public GlyphTable(char unknownChar) {
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            pages[i] = EMPTY_PAGE;
+        }
+        chars[UNKNOWN] = unknownChar;
+    }
+
+    // Adds every printable character of the sequence that is not in the table yet
+    public void addAll(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            add(text.charAt(i));
+        }
+    }
+
+    public void add(char c) {
+        if (Character.isISOControl(c) || indexOf(c) != UNKNOWN)
+            return;
+        if (size > Character.MAX_VALUE)
+            throw new IllegalStateException("Glyph table is full");
+
+        char[] page = pages[c >>> PAGE_BITS];
+        if (page == EMPTY_PAGE) {
+            page = new char[PAGE_SIZE];
+            pages[c >>> PAGE_BITS] = page;
+        }
+        page[c & PAGE_MASK] = (char) size;
+
+        if (size == chars.length) {
+            char[] grown = new char[chars.length * 2];
+            System.arraycopy(chars, 0, grown, 0, size);
+            chars = grown;
+        }
+        chars[size++] = c;
+    }
+
+    // Whether every printable character of the sequence has its own glyph
+    public boolean containsAll(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (indexOf(c) == UNKNOWN && c != chars[UNKNOWN] && !Character.isISOControl(c))
+                return false;
+        }
+        return true;
+    }
+
+    public int indexOf(char c) {
+        return pages[c >>> PAGE_BITS][c & PAGE_MASK];
+    }
+
+    public char charAt(int index) {
+        return chars[index];
+    }
+
+    // Number of glyphs including the unknown one
+    public int size() {
+        return size;
+    }
+
+    // Characters 32..255 of Windows-1251, the set the atlas was always built from
+    public static String cp1251() {
+        final String russianSequence = "АБВГДЕЖЗИЙКЛМНОПРСТУФХЦЧШЩЪЫЬЭЮЯабвгдежзийклмнопрстуфхцчшщъыьэюя";
+        StringBuilder sb = new StringBuilder(224);
+        for (char c = 32; c < 192; c++) {
+            if (c == 168)
+                sb.append('Ё');
+            else if (c == 184)
+                sb.append('ё');
+            else
+                sb.append(c);
+        }
+        sb.append(russianSequence);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package ru.omniverse.android.stargreeter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Values loaded once per name, as futures. All callers of a name share one load, whichever thread asks
+ * first: {@link #preload} queues it on the executor, {@link #get} runs it on the calling thread if nobody
+ * started it and otherwise waits only for that one value. A failed load is kept and thrown to every caller.
+ */
+abstract class LoadingCache<V> {
+
+    private final ConcurrentMap<String, FutureTask<V>> mValues = new ConcurrentHashMap<String, FutureTask<V>>();
+    private final Executor mExecutor;
+
+    private int loaded;                     // loads started
+    private int waits;                      // get() calls that found their value still loading
+    private long waitTime;                  // spent in those calls (ns)
+
+    LoadingCache(Executor executor) {
+        mExecutor = executor;
+    }
+
+    // Loads a value, on a worker thread or the thread of the first get()
+    protected abstract V load(String name) throws Exception;
+
+    //--Preload--//
+    // D: start loading a value in the background unless it is loaded or loading already
+    // A: name - the key of the value
+    // R: the value to come
+    public Future<V> preload(String name) {
+        final FutureTask<V> task = task(name);
+        if (task != null) {
+            mExecutor.execute(task);
+            return task;
+        }
+        return mValues.get(name);
+    }
+
+    //--Get--//
+    // D: the value, loaded on this thread if nobody started it, waiting for it if it is loading
+    // A: name - the key of the value
+    // R: the value; a failed load is thrown as a RuntimeException
+    public V get(String name) {
+        final FutureTask<V> task = task(name);
+        if (task != null)
+            task.run();
+        final Future<V> value = task != null ? task : mValues.get(name);
+        final boolean waiting = !value.isDone();
+        final long start = System.nanoTime();
+        try {
+            return value.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading " + name, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException("Can not load " + name, e.getCause());
+        } finally {
+            if (waiting)
+                waited(System.nanoTime() - start);
+        }
+    }
+
+    // A new task for a name if there is none yet, the caller runs it; null if another caller has it
+    private FutureTask<V> task(final String name) {
+        if (mValues.containsKey(name))
+            return null;
+        final FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return load(name);
+            }
+        });
+        if (mValues.putIfAbsent(name, task) != null)
+            return null;
+        synchronized (this) {
+            loaded++;
+        }
+        return task;
+    }
+
+    private synchronized void waited(long time) {
+        waits++;
+        waitTime += time;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "{loaded=" + loaded + ", waits=" + waits + ", waited " + waitTime / 1000000 + " ms}";
+    }
+}
@@ -0,0 +1,71 @@
+package ru.omniverse.android.stargreeter;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Glyphs measured and drawn with Android's Paint, onto an alpha only Bitmap.
+ */
+class PaintGlyphRenderer implements GlyphRenderer {
+
+    private final Paint mPaint;
+    private final char[] mChar = new char[1];
+    private final Rect mBounds = new Rect();
+
+    PaintGlyphRenderer(Typeface typeface, int size) {
+        mPaint = new Paint();                           // Create Android Paint Instance
+        mPaint.setAntiAlias(true);                      // Enable Anti Alias
+        mPaint.setTextSize(size);                       // Set Text Size
+        mPaint.setColor(0xffffffff);                    // Set ARGB (White, Opaque)
+        mPaint.setTypeface(typeface);                   // Set Typeface
+    }
+
+    @Override
+    public void getBounds(char c, int[] bounds) {
+        mChar[0] = c;
+        mPaint.getTextBounds(mChar, 0, 1, mBounds);     // Get Character Bounds
+        bounds[0] = mBounds.left;
+        bounds[1] = mBounds.top;
+        bounds[2] = mBounds.right;
+        bounds[3] = mBounds.bottom;
+    }
+
+    @Override
+    public Surface createSurface(final int width, final int height) {
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);  // Create Bitmap
+        bitmap.eraseColor(0x00000000);                  // Set Transparent Background (ARGB)
+        return new Surface() {
+            @Override
+            public void draw(char[] chars, float[] x, float[] y, int count) {
+                final Canvas canvas = new Canvas(bitmap);   // Create Canvas for Rendering to Bitmap
+                final Paint paint = new Paint(mPaint);      // Paint Is Not Thread Safe
+                for (int i = 0; i < count; i++) {
+                    canvas.drawText(chars, i, 1, x[i], y[i], paint);  // Draw Character
+                }
+            }
+
+            @Override
+            public void finish(ByteBuffer pixels) {
+                final int stride = bitmap.getRowBytes();
+                if (stride == width) {
+                    // the usual case, atlas widths are powers of two: straight into the atlas
+                    bitmap.copyPixelsToBuffer(pixels);
+                } else {
+                    // padded rows, dropped on the way
+                    final ByteBuffer rows = ByteBuffer.allocate(stride * height);
+                    bitmap.copyPixelsToBuffer(rows);
+                    for (int row = 0; row < height; row++) {
+                        rows.limit(row * stride + width).position(row * stride);
+                        pixels.put(rows);
+                    }
+                }
+                bitmap.recycle();
+            }
+        };
+    }
+}
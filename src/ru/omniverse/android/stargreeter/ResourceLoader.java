@@ -6,38 +6,72 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Typeface;
-import org.w3c.dom.Document;
+import android.util.Xml;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 class ResourceLoader {
 
+    private static final int MAX_FONT_THREADS = 4;      // Most Fonts Loaded at Once
+
     private final Resources mContextResources;
     private final AssetManager mAssetManager;
+    private final AtlasCache mAtlasCache;
+    private DeckBundle mDeckBundle;
+    private boolean mDeckBundleOpened;
 
     ResourceLoader(Context context) {
         this.mContextResources = context.getResources();
         this.mAssetManager = context.getAssets();
+        this.mAtlasCache = new AtlasCache(new File(context.getCacheDir(), "atlases"));
     }
 
-    public Document loadXml(final int resourceId) {
+    // the deck, the background and the first font at startup, off the UI and GL threads
+    private static final ExecutorService BACKGROUND_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private int mCount;
 
-        final InputStream inputStream = mContextResources.openRawResource(resourceId);
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Loader-" + mCount++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // Runs a load on a background thread, the threads go away when idle
+    public <T> Future<T> loadInBackground(Callable<T> load) {
+        return BACKGROUND_EXECUTOR.submit(load);
+    }
 
-        DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+    // A pull parser reading a raw resource, for StarGreeterData.parse()
+    public XmlPullParser loadXmlParser(final int resourceId) {
+        return loadXmlParser(mContextResources.openRawResource(resourceId));
+    }
+
+    // A pull parser reading a stream, closing the stream is left to the caller
+    public XmlPullParser loadXmlParser(final InputStream inputStream) {
+        final XmlPullParser parser = Xml.newPullParser();
         try {
-            DocumentBuilder builder = builderFactory.newDocumentBuilder();
-            return builder.parse(inputStream);
-        } catch (Exception e) {
+            parser.setInput(inputStream, null);
+        } catch (XmlPullParserException e) {
             throw new RuntimeException("Can not load xml file", e);
         }
+        return parser;
+    }
+
+    public InputStream openRawResource(final int resourceId) {
+        return mContextResources.openRawResource(resourceId);
     }
 
     public String loadShader(final int resourceId) {
@@ -65,17 +99,135 @@ class ResourceLoader {
         return BitmapFactory.decodeResource(mContextResources, resourceId, options);
     }
 
+    // Decodes a bitmap into a direct buffer, which outlives GL contexts unlike a texture
+    public TextureImage loadTextureImage(final int resourceId) {
+        Bitmap bitmap = loadBitmap(resourceId);
+        TextureImage image = TextureImage.fromBitmap(bitmap);
+        if (image == null) {
+            // a config GL has no format for
+            final Bitmap converted = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+            bitmap.recycle();
+            bitmap = converted;
+            image = TextureImage.fromBitmap(bitmap);
+        }
+        bitmap.recycle();
+        return image;
+    }
+
 
-    private Map<String, Typeface> mFontCache = new HashMap<String, Typeface>();
+    // fonts are needed by the atlas prefetcher and the GL thread, distinct fonts load in parallel
+    private static final ExecutorService FONT_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_FONT_THREADS)), new ThreadFactory() {
+        private int mCount;
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FontLoader-" + mCount++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
+    private final LoadingCache<Typeface> mFonts = new LoadingCache<Typeface>(FONT_EXECUTOR) {
+        @Override
+        protected Typeface load(String name) {
+            // Create the Typeface from Font File
+            return Typeface.createFromAsset(mAssetManager, name + ".ttf");
+        }
+    };
+
+    // Hash of a font file, so that cached atlases of a changed font are not used
+    private final LoadingCache<String> mFontHashes = new LoadingCache<String>(FONT_EXECUTOR) {
+        @Override
+        protected String load(String name) {
+            try {
+                return AtlasEntry.hash(mAssetManager.open(name + ".ttf"));
+            } catch (IOException e) {
+                throw new RuntimeException("Can not read font file " + name, e);
+            }
+        }
+    };
+
+    // Metrics of a font file, atlases take the line and the advances from there
+    private final LoadingCache<TrueTypeMetrics> mFontMetrics = new LoadingCache<TrueTypeMetrics>(FONT_EXECUTOR) {
+        @Override
+        protected TrueTypeMetrics load(String name) {
+            try {
+                return TrueTypeMetrics.read(mAssetManager.open(name + ".ttf"));
+            } catch (IOException e) {
+                throw new RuntimeException("Can not read font file " + name, e);
+            }
+        }
+    };
+
+    //--Preload Font--//
+    // D: start loading a font and its hash in the background, unless they are loaded or loading already.
+    //    does not block; may be called on any thread.
+    // A: name - the font file in the assets, without .ttf
+    //    typeface - whether the typeface and the metrics are needed too, they are not for atlases baked
+    //               into the deck bundle
+    // R: [none]
+    public void preloadFont(String name, boolean typeface) {
+        mFontHashes.preload(name);
+        if (typeface) {
+            mFonts.preload(name);
+            mFontMetrics.preload(name);
+        }
+    }
+
+    // The typeface, waiting only if this font is still loading. may be called on any thread.
     public Typeface loadCachedFont(String name) {
-        if (mFontCache.containsKey(name)) {
-            return mFontCache.get(name);
+        return mFonts.get(name);
+    }
+
+    // Hash of a font file, waiting only if it is still being read. may be called on any thread.
+    public String loadFontHash(String name) {
+        return mFontHashes.get(name);
+    }
+
+    // Metrics of a font file, waiting only if they are still being read. may be called on any thread.
+    public TrueTypeMetrics loadFontMetrics(String name) {
+        return mFontMetrics.get(name);
+    }
+
+    public String getFontStats() {
+        return "typefaces " + mFonts + ", hashes " + mFontHashes + ", metrics " + mFontMetrics;
+    }
+
+    //--Load Font Atlas--//
+    // D: read an atlas baked into the deck bundle or from the disk cache, or rasterize and cache it.
+    //    may be called on any thread.
+    // A: name, size, padX, padY, text, flags - see FontAtlas.rasterize()
+    // R: the atlas, or null if it does not fit a texture
+    public FontAtlas loadFontAtlas(String name, int size, int padX, int padY, CharSequence text, int flags) {
+        final String key = AtlasEntry.key(loadFontHash(name), name, size, padX, padY, text, flags);
+        final DeckBundle bundle = getDeckBundle();
+        FontAtlas atlas = bundle != null ? bundle.loadAtlas(key, name, size, text, flags) : null;
+        if (atlas == null)
+            atlas = mAtlasCache.load(key, name, size, text, flags);
+        if (atlas == null) {
+            atlas = FontAtlas.rasterize(new PaintGlyphRenderer(loadCachedFont(name), size), loadFontMetrics(name),
+                    name, size, padX, padY, text, flags);
+            if (atlas != null)
+                mAtlasCache.store(key, atlas);
+        }
+        // levels are cheap to make from the pixels and are not cached
+        if (atlas != null && (flags & FontAtlas.LEVELS) != 0)
+            atlas.buildLevels();
+        return atlas;
+    }
+
+    public AtlasCache getAtlasCache() {
+        return mAtlasCache;
+    }
+
+    // The compiled deck from the assets, or null if the package has none. mapped on first use, on any thread
+    public synchronized DeckBundle getDeckBundle() {
+        if (!mDeckBundleOpened) {
+            mDeckBundle = DeckBundle.open(mAssetManager);
+            mDeckBundleOpened = true;
         }
-        // Create the Typeface from Font File
-        Typeface tf = Typeface.createFromAsset(mAssetManager, name + ".ttf");
-        mFontCache.put(name, tf);
-        return tf;
+        return mDeckBundle;
     }
 
 }
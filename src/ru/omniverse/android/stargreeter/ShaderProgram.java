@@ -0,0 +1,113 @@
+package ru.omniverse.android.stargreeter;
+
+import android.opengl.GLES20;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Linked program with its active attributes and uniforms, enumerated once after linking.
+ * <p/>
+ * Lookups by name are answered from the reflected tables, so components read their handles here
+ * instead of asking the driver with glGetAttribLocation/glGetUniformLocation. A name the program
+ * does not use (or the compiler optimized away) has location -1, like in GL.
+ */
+class ShaderProgram {
+
+    /**
+     * Active attribute or uniform. Arrays are stored under their plain name with size > 1.
+     */
+    static class Variable {
+        public final String name;
+        public final int location;
+        public final int type;              // GL type, e.g. GL_FLOAT_VEC4
+        public final int size;              // number of array elements, 1 for non-arrays
+
+        Variable(String name, int location, int type, int size) {
+            this.name = name;
+            this.location = location;
+            this.type = type;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return name + (size > 1 ? "[" + size + "]" : "") + "@" + location;
+        }
+    }
+
+    public final int handle;
+    private final Map<String, Variable> attributes;
+    private final Map<String, Variable> uniforms;
+
+    // Reflects a successfully linked program
+    ShaderProgram(int handle) {
+        this.handle = handle;
+        attributes = reflect(handle, false);
+        uniforms = reflect(handle, true);
+    }
+
+    private static Map<String, Variable> reflect(int program, boolean uniform) {
+        final int[] value = new int[1];
+        GLES20.glGetProgramiv(program, uniform ? GLES20.GL_ACTIVE_UNIFORMS : GLES20.GL_ACTIVE_ATTRIBUTES, value, 0);
+        final int count = value[0];
+        GLES20.glGetProgramiv(program,
+                uniform ? GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH : GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, value, 0);
+        final byte[] nameBytes = new byte[Math.max(value[0], 1)];
+
+        final Map<String, Variable> variables = new HashMap<String, Variable>();
+        final int[] length = new int[1];
+        final int[] size = new int[1];
+        final int[] type = new int[1];
+        for (int i = 0; i < count; i++) {
+            if (uniform) {
+                GLES20.glGetActiveUniform(program, i, nameBytes.length, length, 0, size, 0, type, 0, nameBytes, 0);
+            } else {
+                GLES20.glGetActiveAttrib(program, i, nameBytes.length, length, 0, size, 0, type, 0, nameBytes, 0);
+            }
+            String name = new String(nameBytes, 0, length[0]);
+            // some drivers report uniform arrays as "name[0]"
+            if (name.endsWith("[0]"))
+                name = name.substring(0, name.length() - 3);
+
+            // the index of an active variable is not its location
+            final int location = uniform
+                    ? GLES20.glGetUniformLocation(program, name)
+                    : GLES20.glGetAttribLocation(program, name);
+            variables.put(name, new Variable(name, location, type[0], size[0]));
+        }
+        return Collections.unmodifiableMap(variables);
+    }
+
+    public int getAttribLocation(String name) {
+        return location(attributes.get(name));
+    }
+
+    public int getUniformLocation(String name) {
+        return location(uniforms.get(name));
+    }
+
+    // Number of elements of a uniform array, 0 if the uniform is not active
+    public int getUniformSize(String name) {
+        final Variable variable = uniforms.get(name);
+        return variable != null ? variable.size : 0;
+    }
+
+    public Map<String, Variable> getAttributes() {
+        return attributes;
+    }
+
+    public Map<String, Variable> getUniforms() {
+        return uniforms;
+    }
+
+    private static int location(Variable variable) {
+        return variable != null ? variable.location : -1;
+    }
+
+    @Override
+    public String toString() {
+        return "ShaderProgram{" + handle + ", attributes=" + attributes.values() + ", uniforms=" + uniforms.values() + '}';
+    }
+}
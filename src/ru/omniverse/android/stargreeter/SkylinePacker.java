@@ -0,0 +1,135 @@
+package ru.omniverse.android.stargreeter;
+
+/**
+ * Places rectangles in a fixed-size area with the bottom-left skyline heuristic.
+ * <p/>
+ * The used part of the area is described by its top edge, a list of horizontal segments ordered by x.
+ * A rectangle goes where its top ends lowest (ties: the narrowest segment it starts on) and raises
+ * the skyline under it; the gaps it leaves below are lost. Packing rectangles sorted by decreasing
+ * height keeps those gaps small.
+ */
+class SkylinePacker {
+
+    private final int mWidth, mHeight;
+    // skyline segments: left x, top y (first free row), width
+    private int[] mSegX, mSegY, mSegW;
+    private int mCount;
+    private long mUsedArea;
+
+    public SkylinePacker(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mSegX = new int[16];
+        mSegY = new int[16];
+        mSegW = new int[16];
+        mSegW[0] = width;
+        mCount = 1;
+    }
+
+    //--Pack--//
+    // D: find a place for a rectangle and mark it used
+    // A: width, height - the size of the rectangle (pixels)
+    //    position - receives the top/left x,y of the place
+    // R: false if the rectangle does not fit anywhere, the packer is unchanged then
+    public boolean pack(int width, int height, int[] position) {
+        if (width <= 0 || height <= 0) {
+            position[0] = position[1] = 0;
+            return true;
+        }
+
+        int best = -1, bestTop = Integer.MAX_VALUE, bestSegWidth = Integer.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            final int y = fit(i, width, height);
+            if (y < 0)
+                continue;
+            if (y + height < bestTop || (y + height == bestTop && mSegW[i] < bestSegWidth)) {
+                best = i;
+                bestTop = y + height;
+                bestSegWidth = mSegW[i];
+            }
+        }
+        if (best < 0)
+            return false;
+
+        position[0] = mSegX[best];
+        position[1] = bestTop - height;
+        raise(best, position[0], bestTop, width);
+        mUsedArea += (long) width * height;
+        return true;
+    }
+
+    // The y a rectangle starting at segment i would be placed at, or -1 if it does not fit there
+    private int fit(int i, int width, int height) {
+        final int x = mSegX[i];
+        if (x + width > mWidth)
+            return -1;
+        int y = 0;
+        for (int left = width; left > 0; i++) {
+            y = Math.max(y, mSegY[i]);
+            if (y + height > mHeight)
+                return -1;
+            left -= mSegW[i];
+        }
+        return y;
+    }
+
+    // Inserts the segment x..x+width at top before segment i and cuts away what it covers
+    private void raise(int i, int x, int top, int width) {
+        insert(i, x, top, width);
+
+        final int right = x + width;
+        for (int j = i + 1; j < mCount && mSegX[j] < right; ) {
+            final int segRight = mSegX[j] + mSegW[j];
+            if (segRight <= right) {
+                remove(j);
+            } else {
+                mSegW[j] = segRight - right;
+                mSegX[j] = right;
+                break;
+            }
+        }
+
+        // merge neighbours at the same height
+        for (int j = 0; j < mCount - 1; ) {
+            if (mSegY[j] == mSegY[j + 1]) {
+                mSegW[j] += mSegW[j + 1];
+                remove(j + 1);
+            } else {
+                j++;
+            }
+        }
+    }
+
+    private void insert(int i, int x, int y, int width) {
+        if (mCount == mSegX.length) {
+            mSegX = grow(mSegX);
+            mSegY = grow(mSegY);
+            mSegW = grow(mSegW);
+        }
+        System.arraycopy(mSegX, i, mSegX, i + 1, mCount - i);
+        System.arraycopy(mSegY, i, mSegY, i + 1, mCount - i);
+        System.arraycopy(mSegW, i, mSegW, i + 1, mCount - i);
+        mSegX[i] = x;
+        mSegY[i] = y;
+        mSegW[i] = width;
+        mCount++;
+    }
+
+    private void remove(int i) {
+        System.arraycopy(mSegX, i + 1, mSegX, i, mCount - i - 1);
+        System.arraycopy(mSegY, i + 1, mSegY, i, mCount - i - 1);
+        System.arraycopy(mSegW, i + 1, mSegW, i, mCount - i - 1);
+        mCount--;
+    }
+
+    private static int[] grow(int[] array) {
+        final int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    // Area covered by packed rectangles over the whole area
+    public float getFillRatio() {
+        return (float) mUsedArea / ((float) mWidth * mHeight);
+    }
+}
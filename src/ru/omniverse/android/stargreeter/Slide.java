@@ -2,6 +2,7 @@ package ru.omniverse.android.stargreeter;
 
 class Slide {
     private final String text;
+    private String[] lines;
     private final String fontName;
     private final int fontSize;
     private final int fontColor;
@@ -13,10 +14,23 @@ class Slide {
         this.fontColor = fontColor;
     }
 
+    // lines - the text split into lines, e.g. by the deck compiler
+    public Slide(String text, String[] lines, String fontName, int fontSize, int fontColor) {
+        this(text, fontName, fontSize, fontColor);
+        this.lines = lines;
+    }
+
     String getText() {
         return text;
     }
 
+    // Lines of the text, split once
+    String[] getLines() {
+        if (lines == null)
+            lines = text.split("\\r?\\n");
+        return lines;
+    }
+
     String getFontName() {
         return fontName;
     }
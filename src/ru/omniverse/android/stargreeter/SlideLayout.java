@@ -0,0 +1,92 @@
+package ru.omniverse.android.stargreeter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Text layout of a slide for a given font: lines, their widths, the bounding box
+ * and a glyph mesh centered at the origin. Built once per slide, immutable afterwards.
+ */
+class SlideLayout {
+
+    // gap between lines relative to a line height
+    private static final float LINE_SPACING = 0.2f;
+
+    private final String[] lines;
+    private final float[] lineWidths;
+    private final float width;
+    private final float height;
+    private final ByteBuffer mesh;
+    private final int spriteCount;
+
+    private SlideLayout(String[] lines, float[] lineWidths, float width, float height,
+                        ByteBuffer mesh, int spriteCount) {
+        this.lines = lines;
+        this.lineWidths = lineWidths;
+        this.width = width;
+        this.height = height;
+        this.mesh = mesh;
+        this.spriteCount = spriteCount;
+    }
+
+    public static SlideLayout create(Slide slide, GLText glText) {
+        final String[] lines = slide.getLines();
+
+        final float[] lineWidths = new float[lines.length];
+        float width = 0;
+        int spriteCount = 0;
+        for (int i = 0; i < lines.length; i++) {
+            lineWidths[i] = glText.getLength(lines[i]);
+            width = Math.max(width, lineWidths[i]);
+            spriteCount += lines[i].length();
+        }
+
+        // lines are stacked from the bottom, the first line on top
+        final float hf = glText.getCharHeight();
+        final float h0 = hf * LINE_SPACING;
+        final float height = lines.length * (hf + h0) - h0;
+
+        final ByteBuffer mesh = glText.newMesh(spriteCount);
+        int sprite = 0;
+        for (int i = 0; i < lines.length; i++) {
+            float y = -height / 2 + hf / 2 + i * (hf + h0);
+            sprite = glText.meshC(mesh, sprite, lines[lines.length - i - 1], 0, y);
+        }
+
+        return new SlideLayout(lines, lineWidths, width, height, mesh, spriteCount);
+    }
+
+    // Scale that fits the text box into a projection box of the given aspect ratio
+    public float fitScale(float projectionSize, float ratio, float preScale) {
+        float scaleX = preScale * (projectionSize * ratio / width);
+        float scaleY = preScale * (projectionSize / height);
+        return Math.min(scaleX, scaleY);
+    }
+
+    public void draw(GLText glText) {
+        glText.drawMesh(mesh, spriteCount);
+    }
+
+    public String[] getLines() {
+        return lines.clone();
+    }
+
+    public String getFirstLine() {
+        return lines[0];
+    }
+
+    public float getLineWidth(int line) {
+        return lineWidths[line];
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    public int getSpriteCount() {
+        return spriteCount;
+    }
+}
@@ -0,0 +1,128 @@
+package ru.omniverse.android.stargreeter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * The settings of a deck and its slides, read as they are needed instead of all at once.
+ * <p/>
+ * The settings and the beginning are known up front, the length of the deck is not. Each {@link #iterator()}
+ * is a new pass over the deck that reads one slide at a time, starting with {@link #getBeginning()} itself
+ * so that it can be told apart by identity. A {@link Window} keeps a bounded number of upcoming slides
+ * ahead of such a pass, so memory does not grow with the length of the deck; rewinding is opening a new
+ * window.
+ */
+abstract class SlideSource implements Iterable<Slide> {
+
+    private final Slide beginning;
+    private final int slideTime;
+    private final boolean keepLastSlide;
+    private final String audioName;
+
+    SlideSource(Slide beginning, int slideTime, boolean keepLastSlide, String audioName) {
+        this.beginning = beginning;
+        this.slideTime = slideTime;
+        this.keepLastSlide = keepLastSlide;
+        this.audioName = audioName;
+    }
+
+    // A new pass over all slides, the beginning first. Passes that are left early are closed if Closeable.
+    public abstract Iterator<Slide> iterator();
+
+    //--Open--//
+    // D: start a pass over the slides from the beginning
+    // A: lookahead - the most upcoming slides that can be peeked at
+    // R: the window, closed by its owner
+    public Window open(int lookahead) {
+        return new Window(iterator(), lookahead);
+    }
+
+    public Slide getBeginning() {
+        return beginning;
+    }
+
+    // The characters of every font of the deck if the source knows them without a pass, otherwise null
+    public DeckFonts getFonts() {
+        return null;
+    }
+
+    public int getSlideTime() {
+        return slideTime;
+    }
+
+    public boolean isKeepLastSlide() {
+        return keepLastSlide;
+    }
+
+    public String getAudioName() {
+        return audioName;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+                "slideTime=" + slideTime +
+                ", keepLastSlide=" + keepLastSlide +
+                ", audioName='" + audioName + '\'' +
+                '}';
+    }
+
+    /**
+     * A pass over the slides holding at most a lookahead of upcoming slides, read from the pass as they
+     * are peeked at or taken. Not thread safe.
+     */
+    static class Window implements Closeable {
+
+        private final Iterator<Slide> mSlides;
+        private final int mLookahead;
+        private final LinkedList<Slide> mAhead = new LinkedList<Slide>();
+
+        Window(Iterator<Slide> slides, int lookahead) {
+            mSlides = slides;
+            mLookahead = Math.max(lookahead, 1);
+        }
+
+        public boolean hasNext() {
+            return fill(1);
+        }
+
+        public Slide next() {
+            if (!fill(1))
+                throw new NoSuchElementException();
+            return mAhead.removeFirst();
+        }
+
+        //--Peek--//
+        // D: an upcoming slide without taking it
+        // A: ahead - 0 for the slide next() returns, less than the lookahead
+        // R: the slide, or null past the last one
+        public Slide peek(int ahead) {
+            if (ahead < 0 || ahead >= mLookahead)
+                throw new IllegalArgumentException("Peeking " + ahead + " slides ahead of a window of " + mLookahead);
+            return fill(ahead + 1) ? mAhead.get(ahead) : null;
+        }
+
+        // Reads slides until count are ahead or the pass ends
+        private boolean fill(int count) {
+            while (mAhead.size() < count && mSlides.hasNext()) {
+                mAhead.add(mSlides.next());
+            }
+            return mAhead.size() >= count;
+        }
+
+        @Override
+        public void close() {
+            mAhead.clear();
+            if (mSlides instanceof Closeable) {
+                try {
+                    ((Closeable) mSlides).close();
+                } catch (IOException ignored) {
+                    // nothing left to do
+                }
+            }
+        }
+    }
+}
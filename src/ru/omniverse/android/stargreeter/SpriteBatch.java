@@ -3,21 +3,29 @@ package ru.omniverse.android.stargreeter;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class SpriteBatch {
 
     //--Constants--//
-    final static int VERTEX_SIZE = 5;                  // Vertex Size (in Components) ie. (X,Y,U,V,M), M is MVP matrix index
     final static int VERTICES_PER_SPRITE = 4;          // Vertices Per Sprite
     final static int INDICES_PER_SPRITE = 6;           // Indices Per Sprite
 
     //--Members--//
+    final GLState state;                               // Render State of the Context
     Vertices vertices;                                 // Vertices Instance Used for Rendering
-    float[] vertexBuffer;                              // Vertex Buffer
-    int bufferIndex;                                   // Vertex Buffer Start Index
+    final VertexFormat format;                         // Vertex Layout (X,Y,U,V[,M]), M is MVP matrix index
+    final ByteBuffer vertexBuffer;                     // Vertex Buffer (Written in Place, Owned by Vertices)
+    int bufferIndex;                                   // Vertex Buffer Start Index (Bytes)
     int maxSprites;                                    // Maximum Sprites Allowed in Buffer
     int numSprites;                                    // Number of Sprites Currently in Buffer
+    final boolean sharedMatrix;                        // All Sprites Use the Matrix Given at Begin (Positions Pre-Transformed on CPU)
+    int drawCalls;                                     // Draw Calls Issued Since resetStats()
+    int matrixUploads;                                 // MVP Matrices Uploaded Since resetStats()
+    private ByteBuffer mUploadedMesh;                        // Mesh currently held by static vertex storage
     private float[] mVPMatrix;                            // View and projection matrix specified at begin
-    private float[] uMVPMatrices = new float[GLText.CHAR_BATCH_SIZE * 16]; // MVP matrix array to pass to shader
+    private final float[] uMVPMatrices;                   // MVP matrix array to pass to shader
     private int mMVPMatricesHandle;                            // shader handle of the MVP matrix array
     private float[] mMVPMatrix = new float[16];                // used to calculate MVP matrix of each sprite
     private int mLightPosHandle;
@@ -33,11 +41,25 @@ public class SpriteBatch {
 
     //--Constructor--//
     // D: prepare the sprite batcher for specified maximum number of sprites
-    // A: maxSprites - the maximum allowed sprites per batch
+    //    NOTE: without a shared matrix maxSprites can not exceed the size of u_MVPMatrix
+    // A: state - render state of the context the batch draws in
+    //    maxSprites - the maximum allowed sprites per batch
     //    program - program to use when drawing
-    public SpriteBatch(int maxSprites, int programHandle) {
-        this.vertexBuffer = new float[maxSprites * VERTICES_PER_SPRITE * VERTEX_SIZE];  // Create Vertex Buffer
-        this.vertices = new Vertices(programHandle, maxSprites * VERTICES_PER_SPRITE, maxSprites * INDICES_PER_SPRITE);  // Create Rendering Vertices
+    //    sharedMatrix - upload a single MVP matrix per batch and transform sprites on the CPU
+    //    format - vertex layout; without a shared matrix it must carry the MVP index
+    //    storage - vertex storage (Vertices.STORAGE_*); static storage keeps an unchanged mesh on the GPU
+    public SpriteBatch(GLState state, int maxSprites, ShaderProgram program, boolean sharedMatrix, VertexFormat format,
+                       int storage) {
+        if (!sharedMatrix && !format.hasIndex())
+            throw new IllegalArgumentException("Per-sprite matrices need an MVP index in " + format);
+        if (!sharedMatrix && maxSprites > program.getUniformSize("u_MVPMatrix"))
+            throw new IllegalArgumentException(maxSprites + " sprites exceed u_MVPMatrix of " + program);
+        this.state = state;
+        this.sharedMatrix = sharedMatrix;
+        this.format = format;
+        this.uMVPMatrices = new float[(sharedMatrix ? 1 : maxSprites) * 16];
+        this.vertices = new Vertices(state, program, format, maxSprites * VERTICES_PER_SPRITE, maxSprites * INDICES_PER_SPRITE, storage);  // Create Rendering Vertices
+        this.vertexBuffer = vertices.getWriteBuffer();  // Sprites Are Written Straight Into the Vertex Buffer
         this.bufferIndex = 0;                           // Reset Buffer Index
         this.maxSprites = maxSprites;                   // Save Maximum Sprites
         this.numSprites = 0;                            // Clear Sprite Counter
@@ -56,9 +78,9 @@ public class SpriteBatch {
             indices[i + 5] = (short) (j + 0);           // Calculate Index 5
         }
         vertices.setIndices(indices, 0, len);         // Set Index Buffer for Rendering
-        mMVPMatricesHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
-        mLightPosHandle = GLES20.glGetUniformLocation(programHandle, "u_LightPos");
-        mNormalHandle = GLES20.glGetUniformLocation(programHandle, "u_Normal");
+        mMVPMatricesHandle = program.getUniformLocation("u_MVPMatrix");
+        mLightPosHandle = program.getUniformLocation("u_LightPos");
+        mNormalHandle = program.getUniformLocation("u_Normal");
     }
 
     public void setLightPosition(float x, float y, float z) {
@@ -66,6 +88,14 @@ public class SpriteBatch {
         Matrix.translateM(mLightModelMatrix, 0, x, y, z);
     }
 
+    //--Statistics--//
+    // D: reset draw call and matrix upload counters
+    public void resetStats() {
+        drawCalls = 0;
+        matrixUploads = 0;
+        vertices.resetStats();
+    }
+
     public void beginBatch(float[] vpMatrix) {
         numSprites = 0;                                 // Empty Sprite Counter
         bufferIndex = 0;                                // Reset Buffer Index (Empty)
@@ -78,31 +108,85 @@ public class SpriteBatch {
     // R: [none]
     public void endBatch() {
         if (numSprites > 0) {                        // IF Any Sprites to Render
-            // bind MVP matrices array to shader
-            GLES20.glUniformMatrix4fv(mMVPMatricesHandle, numSprites, false, uMVPMatrices, 0);
-            Utils.checkGlError();
-            GLES20.glEnableVertexAttribArray(mMVPMatricesHandle);
-            Utils.checkGlError();
-
-            Matrix.multiplyMV(mLightPosInWorldSpace, 0, mLightModelMatrix, 0, mLightPosInModelSpace, 0);
-            // XXX hackish hack, do not translate with VP matrix, leave orthogonal model coordinates
-            //Matrix.multiplyMV(mLightPosInEyeSpace, 0, mVPMatrix, 0, mLightPosInWorldSpace, 0);
-            Utils.copyVector(mLightPosInWorldSpace, mLightPosInEyeSpace);
-            mLightPosInEyeSpace[3] = 1.0f;
-
-            // Pass in the light position in eye space.
-            GLES20.glUniform3fv(mLightPosHandle, 1, mLightPosInEyeSpace, 0);
-            Utils.checkGlError();
-
-            GLES20.glUniform3fv(mNormalHandle, 1, mNormal, 0);
-            Utils.checkGlError();
-
-
-            vertices.setVertices(vertexBuffer, 0, bufferIndex);  // Set Vertices from Buffer
-            vertices.bind();                             // Bind Vertices
-            vertices.draw(GLES20.GL_TRIANGLES, 0, numSprites * INDICES_PER_SPRITE);  // Render Batched Sprites
-            vertices.unbind();                           // Unbind Vertices
+            mUploadedMesh = null;                        // Static Storage Gets Overwritten
+            vertices.commitVertices(bufferIndex);       // Make Written Sprites Current
+            render(numSprites);
+        }
+    }
+
+    //--Draw Mesh--//
+    // D: render a prebuilt mesh of sprites that all share the view and projection matrix
+    //    given at beginBatch(). the mesh must be written with putSprite(), and the MVP
+    //    index of each sprite must be mvpIndex() of its position in the mesh.
+    //    NOTE: MUST be called after beginBatch(), and before endBatch()!
+    // A: mesh - the prebuilt vertex data
+    //    spriteCount - the number of sprites in the mesh
+    // R: [none]
+    public void drawMesh(ByteBuffer mesh, int spriteCount) {
+        int slots = sharedMatrix ? 1 : Math.min(spriteCount, maxSprites);
+        for (int i = 0; i < slots; i++) {             // FOR Each Used Matrix Slot
+            System.arraycopy(mVPMatrix, 0, uMVPMatrices, i * 16, 16);
+        }
+
+        final int spriteSize = VERTICES_PER_SPRITE * format.stride;
+        if (spriteCount <= maxSprites && vertices.storage == Vertices.STORAGE_STATIC) {  // IF Mesh Fits Static Storage
+            // meshes are immutable, so the same buffer means the same vertices
+            if (mesh != mUploadedMesh)
+                vertices.setVertices(mesh, 0, spriteCount * spriteSize);
+            mUploadedMesh = mesh;
+            render(spriteCount);
+            return;
         }
+
+        mUploadedMesh = null;
+        for (int first = 0; first < spriteCount; first += maxSprites) {  // FOR Each Chunk of Sprites
+            int count = Math.min(maxSprites, spriteCount - first);
+            vertices.setVertices(mesh, first * spriteSize, count * spriteSize);
+            render(count);
+        }
+    }
+
+    //--New Mesh--//
+    // D: allocate a direct buffer for a mesh of sprites in the format of this batch
+    // A: spriteCount - the number of sprites the mesh holds
+    // R: the mesh buffer, to be written with putSprite()
+    public ByteBuffer newMesh(int spriteCount) {
+        return ByteBuffer.allocateDirect(spriteCount * VERTICES_PER_SPRITE * format.stride)
+                .order(ByteOrder.nativeOrder());
+    }
+
+    //--MVP Index--//
+    // D: return the MVP matrix index to store in the vertices of a sprite
+    // A: sprite - the position of the sprite in its mesh or batch
+    // R: the matrix index
+    public int mvpIndex(int sprite) {
+        return sharedMatrix ? 0 : sprite % maxSprites;
+    }
+
+    private void render(int sprites) {
+        // bind MVP matrices array to shader
+        int matrices = sharedMatrix ? 1 : sprites;
+        state.uniformMatrix4fv(mMVPMatricesHandle, matrices, uMVPMatrices);
+        state.checkError();
+        matrixUploads += matrices;
+
+        Matrix.multiplyMV(mLightPosInWorldSpace, 0, mLightModelMatrix, 0, mLightPosInModelSpace, 0);
+        // XXX hackish hack, do not translate with VP matrix, leave orthogonal model coordinates
+        //Matrix.multiplyMV(mLightPosInEyeSpace, 0, mVPMatrix, 0, mLightPosInWorldSpace, 0);
+        Utils.copyVector(mLightPosInWorldSpace, mLightPosInEyeSpace);
+        mLightPosInEyeSpace[3] = 1.0f;
+
+        // Pass in the light position in eye space.
+        state.uniform3fv(mLightPosHandle, mLightPosInEyeSpace);
+        state.checkError();
+
+        state.uniform3fv(mNormalHandle, mNormal);
+        state.checkError();
+
+
+        vertices.bind();                               // Bind Vertices
+        vertices.draw(GLES20.GL_TRIANGLES, 0, sprites * INDICES_PER_SPRITE);  // Render Batched Sprites
+        drawCalls++;
     }
 
     //--Draw Sprite to Batch--//
@@ -123,6 +207,35 @@ public class SpriteBatch {
             bufferIndex = 0;                             // Reset Buffer Index (Empty)
         }
 
+        if (sharedMatrix) {
+            // move the sprite into the space of the shared matrix
+            bufferIndex = putSprite(format, vertexBuffer, bufferIndex, x, y, width, height, region, 0, modelMatrix);
+            if (numSprites == 0)
+                System.arraycopy(mVPMatrix, 0, uMVPMatrices, 0, 16);
+        } else {
+            bufferIndex = putSprite(format, vertexBuffer, bufferIndex, x, y, width, height, region, numSprites, null);
+
+            // add the sprite mvp matrix to uMVPMatrices array
+            Matrix.multiplyMM(mMVPMatrix, 0, mVPMatrix, 0, modelMatrix, 0);
+            System.arraycopy(mMVPMatrix, 0, uMVPMatrices, numSprites * 16, 16);
+        }
+
+        numSprites++;                                   // Increment Sprite Count
+    }
+
+    //--Put Sprite--//
+    // D: write the four vertices of a sprite quad straight into a vertex buffer (absolute puts)
+    // A: format - the vertex layout to write
+    //    buffer - the direct vertex buffer to write to
+    //    index - the position in the buffer to start at (bytes)
+    //    x, y - the x,y position of the sprite (center)
+    //    width, height - the width and height of the sprite
+    //    region - the texture region to use for sprite
+    //    mvpIndex - the MVP matrix index to assign to the sprite
+    //    modelMatrix - matrix to transform the positions with on the CPU (X/Y part only), or null
+    // R: the position in the buffer after the written vertices
+    static int putSprite(VertexFormat format, ByteBuffer buffer, int index, float x, float y, float width, float height,
+                         TextureRegion region, int mvpIndex, float[] modelMatrix) {
         float halfWidth = width / 2.0f;                 // Calculate Half Width
         float halfHeight = height / 2.0f;               // Calculate Half Height
         float x1 = x - halfWidth;                       // Calculate Left X
@@ -130,37 +243,30 @@ public class SpriteBatch {
         float x2 = x + halfWidth;                       // Calculate Right X
         float y2 = y + halfHeight;                      // Calculate Top Y
 
-        vertexBuffer[bufferIndex++] = x1;               // Add X for Vertex 0
-        vertexBuffer[bufferIndex++] = y1;               // Add Y for Vertex 0
-        vertexBuffer[bufferIndex++] = region.u1;        // Add U for Vertex 0
-        vertexBuffer[bufferIndex++] = region.v2;        // Add V for Vertex 0
-        vertexBuffer[bufferIndex++] = numSprites;
-
-        vertexBuffer[bufferIndex++] = x2;               // Add X for Vertex 1
-        vertexBuffer[bufferIndex++] = y1;               // Add Y for Vertex 1
-        vertexBuffer[bufferIndex++] = region.u2;        // Add U for Vertex 1
-        vertexBuffer[bufferIndex++] = region.v2;        // Add V for Vertex 1
-        vertexBuffer[bufferIndex++] = numSprites;
-
-        vertexBuffer[bufferIndex++] = x2;               // Add X for Vertex 2
-        vertexBuffer[bufferIndex++] = y2;               // Add Y for Vertex 2
-        vertexBuffer[bufferIndex++] = region.u2;        // Add U for Vertex 2
-        vertexBuffer[bufferIndex++] = region.v1;        // Add V for Vertex 2
-        vertexBuffer[bufferIndex++] = numSprites;
-
-        vertexBuffer[bufferIndex++] = x1;               // Add X for Vertex 3
-        vertexBuffer[bufferIndex++] = y2;               // Add Y for Vertex 3
-        vertexBuffer[bufferIndex++] = region.u1;        // Add U for Vertex 3
-        vertexBuffer[bufferIndex++] = region.v1;        // Add V for Vertex 3
-        vertexBuffer[bufferIndex++] = numSprites;
-
-        // add the sprite mvp matrix to uMVPMatrices array
-
-        Matrix.multiplyMM(mMVPMatrix, 0, mVPMatrix, 0, modelMatrix, 0);
+        if (modelMatrix == null) {                      // IF No Transform
+            index = format.put(buffer, index, x1, y1, region.u1, region.v2, mvpIndex);  // Add Vertex 0
+            index = format.put(buffer, index, x2, y1, region.u2, region.v2, mvpIndex);  // Add Vertex 1
+            index = format.put(buffer, index, x2, y2, region.u2, region.v1, mvpIndex);  // Add Vertex 2
+            index = format.put(buffer, index, x1, y2, region.u1, region.v1, mvpIndex);  // Add Vertex 3
+            return index;
+        }
 
-        //TODO: make sure numSprites < 24
-        System.arraycopy(mMVPMatrix, 0, uMVPMatrices, numSprites * 16, 16);
+        final float[] m = modelMatrix;                  // Column-Major, z = 0
+        index = format.put(buffer, index, m[0] * x1 + m[4] * y1 + m[12], m[1] * x1 + m[5] * y1 + m[13],
+                region.u1, region.v2, mvpIndex);        // Add Vertex 0
+        index = format.put(buffer, index, m[0] * x2 + m[4] * y1 + m[12], m[1] * x2 + m[5] * y1 + m[13],
+                region.u2, region.v2, mvpIndex);        // Add Vertex 1
+        index = format.put(buffer, index, m[0] * x2 + m[4] * y2 + m[12], m[1] * x2 + m[5] * y2 + m[13],
+                region.u2, region.v1, mvpIndex);        // Add Vertex 2
+        index = format.put(buffer, index, m[0] * x1 + m[4] * y2 + m[12], m[1] * x1 + m[5] * y2 + m[13],
+                region.u1, region.v1, mvpIndex);        // Add Vertex 3
+        return index;
+    }
 
-        numSprites++;                                   // Increment Sprite Count
+    //--Release--//
+    // D: delete the GPU buffers of the batch
+    public void release() {
+        vertices.release();
+        mUploadedMesh = null;
     }
 }
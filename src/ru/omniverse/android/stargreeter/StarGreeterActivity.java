@@ -2,25 +2,55 @@ package ru.omniverse.android.stargreeter;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.opengl.GLSurfaceView;
 import android.os.Bundle;
 import android.util.Log;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 public class StarGreeterActivity extends Activity {
 
-    private GLSurfaceView mGLView;
-    private StarGreeterData mStarGreeterData;
+    private StarGreeterGLSurfaceView mGLView;
+    private SlideSource mSlideSource;                   // null until the deck is opened
+    private boolean mResumed;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        mStarGreeterData = new StarGreeterData(new ResourceLoader(this).loadXml(R.raw.stargreeter));
-        Log.d(Utils.TAG, "StarGreeterData loaded " + mStarGreeterData);
+        if (Utils.RUN_BENCHMARKS)
+            Benchmarks.start();
+
+        StartupTrace.start();
+        // the deck compiled at build time, or the deck itself, opened in the background; either is read
+        // slide by slide as it plays
+        final ResourceLoader loader = new ResourceLoader(this);
+        final Future<SlideSource> deck = loader.loadInBackground(new Callable<SlideSource>() {
+            @Override
+            public SlideSource call() {
+                final long start = System.nanoTime();
+                final DeckBundle bundle = loader.getDeckBundle();
+                final SlideSource slideSource = bundle != null ? bundle.getSlideSource()
+                        : XmlSlideSource.open(loader, R.raw.stargreeter);
+                StartupTrace.phase("parse", start);
+                Log.d(Utils.TAG, "Deck opened from " + (bundle != null ? DeckFormat.ASSET : "xml") + " in "
+                        + (System.nanoTime() - start) / 1000000 + " ms " + slideSource);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mSlideSource = slideSource;
+                        if (mResumed)
+                            startAudio();
+                    }
+                });
+                return slideSource;
+            }
+        });
 
         // Create a GLSurfaceView instance and set it
-        // as the ContentView for this Activity
-        mGLView = new StarGreeterGLSurfaceView(this, mStarGreeterData);
+        // as the ContentView for this Activity. it shows the background at once
+        // and starts the timeline when the deck is ready
+        mGLView = new StarGreeterGLSurfaceView(this, loader, deck);
         setContentView(mGLView);
     }
 
@@ -31,8 +61,11 @@ public class StarGreeterActivity extends Activity {
         // If your OpenGL application is memory intensive,
         // you should consider de-allocating objects that
         // consume significant memory here.
+        if (isFinishing())
+            mGLView.release();
         mGLView.onPause();
 
+        mResumed = false;
         stopService(new Intent(this, AudioService.class));
     }
 
@@ -40,14 +73,20 @@ public class StarGreeterActivity extends Activity {
     protected void onResume() {
         super.onResume();
 
-        final Intent intent = new Intent(this, AudioService.class);
-        intent.putExtra("name", mStarGreeterData.getAudioName());
-        startService(intent);
+        // the audio starts with the deck if it is still being opened
+        mResumed = true;
+        if (mSlideSource != null)
+            startAudio();
 
         // The following call resumes a paused rendering thread.
         // If you de-allocated graphic objects for onPause()
         // this is a good place to re-allocate them.
         mGLView.onResume();
     }
-}
 
+    private void startAudio() {
+        final Intent intent = new Intent(this, AudioService.class);
+        intent.putExtra("name", mSlideSource.getAudioName());
+        startService(intent);
+    }
+}
@@ -4,11 +4,14 @@ import android.graphics.Color;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -49,6 +52,175 @@ public class StarGreeterData {
         }
     }
 
+    StarGreeterData(List<Slide> slides, int slideTime, boolean keepLastSlide, String audioName) {
+        this.slides = slides;
+        this.slideTime = slideTime;
+        this.keepLastSlide = keepLastSlide;
+        this.audioName = audioName;
+    }
+
+    //--Parse--//
+    // D: read a deck in one streaming pass, without a DOM. gives the same data as the Document
+    //    constructor: the beginning first, then the slides in document order, the first of repeated elements
+    // A: parser - positioned at the start of the document
+    // R: the deck
+    public static StarGreeterData parse(XmlPullParser parser) {
+        try {
+            final PullReader reader = new PullReader(parser);
+            final List<Slide> slides = new ArrayList<Slide>();
+            for (Slide slide = reader.nextSlide(); slide != null; slide = reader.nextSlide()) {
+                slides.add(slide);
+            }
+            slides.add(0, reader.getBeginning());
+            return new StarGreeterData(slides, reader.getSlideTime(), reader.keepLastSlide, reader.getAudioName());
+        } catch (XmlPullParserException e) {
+            throw new RuntimeException("Can not parse xml file", e);
+        } catch (IOException e) {
+            throw new RuntimeException("Can not read xml file", e);
+        }
+    }
+
+    /**
+     * A deck read with a pull parser one slide at a time: each call returns the next slide of the slides
+     * section, the beginning and the settings are picked up on the way wherever they are in the document.
+     * {@link #readSettings()} reads only as far as the beginning and the settings.
+     */
+    static class PullReader {
+
+        private final XmlPullParser parser;
+        // depth 1 is the root, 2 its sections, 3 the settings and the slides
+        private String section;
+        private boolean inRoot;
+        private boolean settingsRead;           // the end of the first settings section was passed
+
+        Slide beginning;
+        String slideTime, audioName;
+        boolean keepLastSlide;
+
+        PullReader(XmlPullParser parser) {
+            this.parser = parser;
+        }
+
+        // The next slide of the slides section, or null at the end of the document
+        Slide nextSlide() throws XmlPullParserException, IOException {
+            return read(false);
+        }
+
+        // Reads until the beginning and the first settings section are complete, slides on the way are skipped.
+        // the settings of later settings sections are not seen, unlike after a whole pass of nextSlide(), and
+        // the reader is done afterwards
+        void readSettings() throws XmlPullParserException, IOException {
+            read(true);
+        }
+
+        private Slide read(boolean settingsOnly) throws XmlPullParserException, IOException {
+            for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (settingsOnly && settingsRead && beginning != null)
+                    return null;
+                if (event == XmlPullParser.END_TAG && parser.getDepth() == 2 && "settings".equals(section))
+                    settingsRead = true;
+                if (event != XmlPullParser.START_TAG)
+                    continue;
+                final String name = parser.getName();
+                final int depth = parser.getDepth();
+                if (depth == 1) {
+                    inRoot = name.equals("stargreeter");
+                } else if (!inRoot) {
+                    skip(parser);
+                } else if (depth == 2) {
+                    section = name;
+                    if (name.equals("beginning")) {
+                        final Slide slide = parseSlide(parser);
+                        if (beginning == null)
+                            beginning = slide;
+                    } else if (!name.equals("settings") && !name.equals("slides")) {
+                        skip(parser);
+                    }
+                } else if (depth == 3 && "slides".equals(section) && name.equals("slide")) {
+                    if (!settingsOnly)
+                        return parseSlide(parser);
+                    skip(parser);
+                } else if (depth == 3 && "settings".equals(section) && name.equals("slide-time")) {
+                    final String value = readText(parser);
+                    if (slideTime == null)
+                        slideTime = value;
+                } else if (depth == 3 && "settings".equals(section) && name.equals("keep-last-slide")) {
+                    // the XPath boolean of a node set: present means true, whatever the text
+                    keepLastSlide = true;
+                    skip(parser);
+                } else if (depth == 3 && "settings".equals(section) && name.equals("audio-name")) {
+                    final String value = readText(parser);
+                    if (audioName == null)
+                        audioName = value;
+                } else {
+                    skip(parser);
+                }
+            }
+            return null;
+        }
+
+        // The settings below are complete once nextSlide() returned null, or after readSettings()
+
+        Slide getBeginning() {
+            if (beginning == null)
+                throw new RuntimeException("Can not parse slides, no beginning");
+            return beginning;
+        }
+
+        int getSlideTime() {
+            return Integer.parseInt(slideTime != null ? slideTime : "");
+        }
+
+        String getAudioName() {
+            return audioName != null ? audioName : "";
+        }
+    }
+
+    // Reads a slide element, the parser is left at its end tag
+    private static Slide parseSlide(XmlPullParser parser) throws XmlPullParserException, IOException {
+        String text = null, fontName = null, fontSize = null, fontColor = null;
+        final int depth = parser.getDepth();
+        for (int event = parser.next(); event != XmlPullParser.END_TAG || parser.getDepth() > depth;
+             event = parser.next()) {
+            if (event != XmlPullParser.START_TAG)
+                continue;
+            if (parser.getName().equals("text") && text == null) {
+                text = readText(parser);
+            } else if (parser.getName().equals("font") && fontName == null) {
+                fontSize = parser.getAttributeValue(null, "size");
+                fontColor = parser.getAttributeValue(null, "color");
+                fontName = readText(parser);
+            } else {
+                skip(parser);
+            }
+        }
+        // missing values fail as they do with XPath, which gives empty strings
+        return new Slide(text != null ? text : "", fontName != null ? fontName : "",
+                Integer.parseInt(fontSize != null ? fontSize : ""),
+                Color.parseColor(fontColor != null ? fontColor : ""));
+    }
+
+    // The text of an element and its descendants like the XPath string value, the parser is left at its end tag
+    private static String readText(XmlPullParser parser) throws XmlPullParserException, IOException {
+        final StringBuilder text = new StringBuilder();
+        final int depth = parser.getDepth();
+        for (int event = parser.next(); event != XmlPullParser.END_TAG || parser.getDepth() > depth;
+             event = parser.next()) {
+            if (event == XmlPullParser.TEXT)
+                text.append(parser.getText());
+        }
+        return text.toString();
+    }
+
+    // Skips an element, the parser is left at its end tag
+    private static void skip(XmlPullParser parser) throws XmlPullParserException, IOException {
+        final int depth = parser.getDepth();
+        int event;
+        do {
+            event = parser.next();
+        } while (event != XmlPullParser.END_TAG || parser.getDepth() > depth);
+    }
+
     private Slide parseSlide(XPath xPath, Element slide) throws XPathExpressionException {
         String text = (String) xPath.evaluate("text", slide, XPathConstants.STRING);
         String fontName = (String) xPath.evaluate("font", slide, XPathConstants.STRING);
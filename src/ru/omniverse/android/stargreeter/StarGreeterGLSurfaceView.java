@@ -3,6 +3,7 @@ package ru.omniverse.android.stargreeter;
 import android.app.Activity;
 import android.content.Context;
 import android.opengl.GLSurfaceView;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
@@ -10,10 +11,13 @@ import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 
+import java.util.concurrent.Future;
+
 @SuppressWarnings("FieldCanBeLocal")
 class StarGreeterGLSurfaceView extends GLSurfaceView {
 
     private final StarGreeterRenderer mRenderer;
+    private final FrameScheduler mScheduler;
 
     private final ScaleGestureDetector mScaleDetector;
     private final GestureDetector mGestureDetector;
@@ -21,14 +25,21 @@ class StarGreeterGLSurfaceView extends GLSurfaceView {
     private float mPreviousX;
     private float mPreviousY;
 
-    public StarGreeterGLSurfaceView(final Activity activity, StarGreeterData starGreeterData) {
+    // resourceLoader - shared with the activity
+    // deck - the deck being opened in the background, the surface shows the background meanwhile
+    public StarGreeterGLSurfaceView(final Activity activity, ResourceLoader resourceLoader,
+                                    Future<SlideSource> deck) {
         super(activity);
         final Context context = activity;
 
         // Create an OpenGL ES 2.0 context.
         setEGLContextClientVersion(2);
 
-        setDebugFlags(DEBUG_CHECK_GL_ERROR);
+        // DEBUG_CHECK_GL_ERROR wraps the GL10 interface only and checks after each of its calls,
+        // the GLES20 calls are checked by the error policy
+        GLErrorCheck errorCheck = GLErrorCheck.forContext(context);
+        if (errorCheck.mode == GLErrorCheck.MODE_DEBUG)
+            setDebugFlags(DEBUG_CHECK_GL_ERROR);
 
         // Handler from the rendering thread
         Handler stopHandler = new Handler() {
@@ -38,11 +49,14 @@ class StarGreeterGLSurfaceView extends GLSurfaceView {
             }
         };
         // Set the Renderer for drawing on the GLSurfaceView
-        mRenderer = new StarGreeterRenderer(context, starGreeterData, stopHandler);
+        mScheduler = new FrameScheduler(this);
+        mRenderer = new StarGreeterRenderer(resourceLoader, deck, stopHandler, errorCheck, mScheduler);
         setRenderer(mRenderer);
+        preserveContextOnPause();
 
-        // Render the view only when there is a change in the drawing data
-        //setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        // Render the view only when there is a change in the drawing data or an animation,
+        // the renderer tells the scheduler what is animating after each frame
+        mScheduler.start();
 
         mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
             @Override
@@ -65,6 +79,7 @@ class StarGreeterGLSurfaceView extends GLSurfaceView {
                 } else {
                     Log.d(Utils.TAG, "Double tap reseta a view");
                     mRenderer.resetView();
+                    requestRender();
                 }
                 return true;
             }
@@ -83,6 +98,35 @@ class StarGreeterGLSurfaceView extends GLSurfaceView {
         });
     }
 
+    // Keeps the context, its textures and buffers while paused where the platform can (API 11), so that
+    // resuming draws at once. the target API lacks the method, and a context may still be lost anyway.
+    private void preserveContextOnPause() {
+        if (Build.VERSION.SDK_INT < 11)
+            return;
+        try {
+            GLSurfaceView.class.getMethod("setPreserveEGLContextOnPause", boolean.class).invoke(this, true);
+        } catch (Exception e) {
+            Log.w(Utils.TAG, "Can not preserve the EGL context on pause", e);
+        }
+    }
+
+    // Deletes the GL objects of the renderer on the GL thread, call before onPause() when the activity is
+    // finishing: the queued event runs ahead of the pause, while the context is current
+    public void release() {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.release();
+            }
+        });
+    }
+
+    @Override
+    public void onResume() {
+        mRenderer.onResume();
+        super.onResume();
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent e) {
         // MotionEvent reports input details from the touch screen
@@ -1,6 +1,5 @@
 package ru.omniverse.android.stargreeter;
 
-import android.content.Context;
 import android.graphics.Color;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
@@ -11,16 +10,37 @@ import android.util.Log;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
-import java.util.Iterator;
-
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static ru.omniverse.android.stargreeter.DeckFonts.FONT_FLAGS;
+import static ru.omniverse.android.stargreeter.DeckFonts.FONT_PAD;
+import static ru.omniverse.android.stargreeter.DeckFonts.atlasSize;
 import static ru.omniverse.android.stargreeter.Utils.TAG;
 
 public class StarGreeterRenderer implements GLSurfaceView.Renderer {
 
     private final ResourceLoader mResourceLoader;
     private final Handler mStopHandler;
+    private final GLErrorCheck mErrorCheck;
+    private final FrameScheduler mScheduler;
 
+    private GLState mGLState;
+    private FontAtlasPool mFontPool;
     private Background mBackground;
+    private TextureImage mBackgroundImage;              // decoded once, uploaded to every context
+    private final Future<TextureImage> mBackgroundLoading;
+    // the deck prepared in the background, gives the atlas of the first slide; the timeline starts when done
+    private final Future<FontAtlas> mDeckLoading;
+    private FontAtlas mFirstAtlas;
+    private boolean mBackgroundShown;                   // the first frame is traced
+    // resume to the first frame with text, and whether the context had to be created again meanwhile
+    private volatile long mResumeTime;
+    private boolean mContextCreated;
+    private boolean mReleased;                          // the GL objects are gone, nothing more is drawn
 
     private final float[] mMVPMatrix = new float[16];
     private final float[] mProjMatrix = new float[16];
@@ -36,6 +56,17 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
 
 
     private GLText glText;
+    private final AtlasPrefetcher mPrefetcher;
+    private long mMaxFlipHitch;
+
+    // the slide due next, shown once the atlas of its font is uploaded
+    private Slide mPendingSlide;
+    private GLText mPendingGLText;
+    private long mPendingAcquireTime;                   // ns spent acquiring the pending font
+    private int mPendingFrames;                         // frames drawn while waiting for the upload
+
+    // the characters of each font known so far, padding and flags shared with the deck compiler
+    private final DeckFonts mDeckFonts = new DeckFonts();
 
     public static final float PROJECTION_SIZE = 150;
     public static final float FAR_PLANE = 30;
@@ -53,13 +84,18 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
 
     // TODO debug stuff
     private boolean reportedPerSlide;
+    // GL errors since the last report, from the error check's listener on the GL thread
+    private int mReportGlErrors;
+    private String mLastGlError;
 
     private boolean mFinished = false;
 
-    private final StarGreeterData mStarGreeterData;
+    private SlideSource mSlideSource;                   // set by the deck loading
     private Slide mCurrentSlide;
+    private SlideLayout mCurrentLayout;
     private final Object listLock = new Object();
-    private Iterator<Slide> mSlideIterator;
+    // the current pass over the deck, holding the slides the prefetcher looks at; null until the deck is loaded
+    private SlideSource.Window mSlideWindow;
 
     private volatile long mPreviousFlipTick = 0;
 
@@ -81,32 +117,141 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
     public static final float ZOOM_SMOOTH_FACTOR = 0.05f;
     private int mFlybyTime;
     private float mRatio;
+    private int mSurfaceHeight;
+    private float mProjectionTop;                       // half height of the frustum at the near plane
 
     private long mPrevVelTimestamp = 0;
     private int mSlideTimeMultiplier;
 
     // Ctor
-    public StarGreeterRenderer(Context context, StarGreeterData starGreeterData, Handler stopHandler) {
-        mStarGreeterData = starGreeterData;
+    // resourceLoader - shared with the activity
+    // deck - the deck being opened in the background
+    public StarGreeterRenderer(final ResourceLoader resourceLoader, final Future<SlideSource> deck,
+                               Handler stopHandler, GLErrorCheck errorCheck, final FrameScheduler scheduler) {
+        mResourceLoader = resourceLoader;
         mStopHandler = stopHandler;
+        mErrorCheck = errorCheck;
+        mErrorCheck.setListener(new GLErrorCheck.Listener() {
+            @Override
+            public void onGlError(String operation, int error, int totalErrors) {
+                mReportGlErrors++;
+                mLastGlError = operation + " 0x" + Integer.toHexString(error);
+            }
+        });
+        mScheduler = scheduler;
 
         mDX = mDY = 0;
         mAbsoluteZoom = ZOOM_MAX;
         mDistance = calculateDistance(mAbsoluteZoom);
 
-        mResourceLoader = new ResourceLoader(context);
+        mPrefetcher = new AtlasPrefetcher(mResourceLoader, FONT_PAD, FONT_PAD, FONT_FLAGS);
+
+        // the surface shows the background as soon as it is decoded, and the first slide once the deck is ready
+        mBackgroundLoading = mResourceLoader.loadInBackground(new Callable<TextureImage>() {
+            @Override
+            public TextureImage call() {
+                final long start = System.nanoTime();
+                final TextureImage image = mResourceLoader.loadTextureImage(R.drawable.background);
+                StartupTrace.phase("bitmap decode", start);
+                scheduler.wake();
+                return image;
+            }
+        });
+        mDeckLoading = mResourceLoader.loadInBackground(new Callable<FontAtlas>() {
+            @Override
+            public FontAtlas call() throws Exception {
+                final FontAtlas atlas = prepareDeck(deck.get());
+                scheduler.wake();
+                return atlas;
+            }
+        });
+    }
 
-        // Preload fonts
-        for (Slide slide : mStarGreeterData.getAllSlides()) {
-            mResourceLoader.loadCachedFont(slide.getFontName());
+    //--Prepare Deck--//
+    // D: preload the fonts and load the atlas of the first slide, so that the timeline can start. runs on a
+    //    background thread. one atlas should serve all slides with a font, so it is loaded with every character
+    //    of the deck drawn with the font: a deck bundle knows them, otherwise the first atlas covers the first
+    //    window and the rest of the deck is scanned in the background while the first slide shows
+    // A: slideSource - the deck
+    // R: the atlas of the first slide
+    private FontAtlas prepareDeck(SlideSource slideSource) {
+        mSlideSource = slideSource;
+
+        // atlases baked into the deck bundle need no typeface, a font is then loaded only if its atlas is
+        // missing from the bundle
+        long start = System.nanoTime();
+        final boolean typefaces = mResourceLoader.getDeckBundle() == null;
+        final DeckFonts fonts = slideSource.getFonts();
+        if (fonts != null)
+            mDeckFonts.addAll(fonts);
+        final SlideSource.Window window = slideSource.open(AtlasPrefetcher.LOOKAHEAD + 1);
+        try {
+            for (int i = 0; i <= AtlasPrefetcher.LOOKAHEAD && window.peek(i) != null; i++) {
+                mResourceLoader.preloadFont(window.peek(i).getFontName(), typefaces);
+                mDeckFonts.add(window.peek(i));
+            }
+        } finally {
+            window.close();
         }
+        StartupTrace.phase("first window", start);
+        if (fonts == null)
+            scanDeck(slideSource);
+
+        start = System.nanoTime();
+        final Slide first = slideSource.getBeginning();
+        final FontAtlas atlas = mResourceLoader.loadFontAtlas(first.getFontName(), atlasSize(first), FONT_PAD,
+                FONT_PAD, deckText(first), FONT_FLAGS);
+        StartupTrace.phase("font load", start);
+        return atlas;
+    }
 
-        // Set to the first slide
-        mSlideIterator = mStarGreeterData.getAllSlides().iterator();
+    // Collects the characters of the rest of the deck and preloads its fonts in the background, later atlases
+    // are loaded with them
+    private void scanDeck(final SlideSource slideSource) {
+        mResourceLoader.loadInBackground(new Callable<Void>() {
+            @Override
+            public Void call() {
+                final long start = System.nanoTime();
+                try {
+                    for (Slide slide : slideSource) {
+                        mResourceLoader.preloadFont(slide.getFontName(), true);
+                        mDeckFonts.add(slide);
+                    }
+                } catch (RuntimeException e) {
+                    // the slides themselves are read again by the timeline, which reports a broken deck
+                    Log.w(TAG, "Can not scan the deck", e);
+                }
+                StartupTrace.phase("deck scan", start);
+                return null;
+            }
+        });
+    }
+
+    // Starts the timeline at the first slide once the deck is prepared
+    private void startTimeline() {
+        if (!mDeckLoading.isDone())
+            return;
+        try {
+            mFirstAtlas = mDeckLoading.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Can not load the deck", e.getCause());
+        }
+        synchronized (listLock) {
+            mSlideWindow = mSlideSource.open(AtlasPrefetcher.LOOKAHEAD);
+        }
+        mPreviousFlipTick = 0;
     }
 
     // external interface
 
+    // Called by the view when it resumes, before the GL thread does
+    public void onResume() {
+        mResumeTime = System.nanoTime();
+    }
+
     public void setCurrentZoom(float currentZoom) {
         if (mAutoZoomInProgress && (mAbsoluteZoom < ZOOM_MAX * 0.7))
             mTouched = true;
@@ -158,11 +303,35 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
     public void resetApp() {
         mPreviousFlipTick = 0;
         synchronized (listLock) {
-            mSlideIterator = mStarGreeterData.getAllSlides().iterator();
+            // nothing to rewind before the timeline starts
+            if (mSlideWindow != null) {
+                mSlideWindow.close();
+                mSlideWindow = mSlideSource.open(AtlasPrefetcher.LOOKAHEAD);
+            }
         }
         resetView();
     }
 
+    //--Release--//
+    // D: delete the fonts, the background and whatever GL objects are left, when the activity is finishing.
+    //    runs on the GL thread while the context is still current
+    // A: [none]
+    // R: [none]
+    public void release() {
+        if (mGLState == null)
+            return;
+        mFontPool.releaseAll();
+        glText = null;
+        mPendingGLText = null;
+        if (mBackground != null) {
+            mBackground.release();
+            mBackground = null;
+        }
+        final int leftovers = mGLState.releaseAll();
+        mReleased = true;
+        Log.d(TAG, "Released the GL objects, " + leftovers + " leftovers");
+    }
+
     // end of external interface
 
     // ZOOM_MAX -> DEPTH_MAX ; ZOOM_MIN -> DEPTH_MIN ;
@@ -173,7 +342,7 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
     }
 
     private long calculateDeltaTime(long currentTick) {
-        return -currentTick + mPreviousFlipTick + mSlideTimeMultiplier * mStarGreeterData.getSlideTime() * 1000;
+        return -currentTick + mPreviousFlipTick + mSlideTimeMultiplier * mSlideSource.getSlideTime() * 1000;
     }
 
     private void flipSlideIfNeeded() {
@@ -192,31 +361,39 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
 
         if (deltaTime <= 0) {
 
-            mOverexposeInProgress = false;
-
-            Slide slide = null;
-            synchronized (listLock) {
-                if (mSlideIterator.hasNext()) {
-                    slide = mSlideIterator.next();
-                } else if (!mFinished) {
-                    mFinished = true;
-                    Log.d(TAG, "Finished");
-                    if (!mStarGreeterData.isKeepLastSlide())
-                        mStopHandler.sendEmptyMessage(0);
+            if (mPendingSlide == null) {
+                Slide slide = null;
+                synchronized (listLock) {
+                    if (mSlideWindow.hasNext()) {
+                        slide = mSlideWindow.next();
+                    } else if (!mFinished) {
+                        mFinished = true;
+                        Log.d(TAG, "Finished");
+                        if (!mSlideSource.isKeepLastSlide())
+                            mStopHandler.sendEmptyMessage(0);
+                    }
                 }
-            }
 
-            if (slide != null) {
+                if (slide != null)
+                    stageSlide(slide);
+                else
+                    mOverexposeInProgress = false;
+            }
 
-                mPreviousFlipTick = currentTick;
-                mCurrentSlide = slide;
-                createCurrentSlide();
+            // keep the current slide (overexposed) until the next one can be drawn
+            if (mPendingSlide != null) {
+                if (mPendingGLText.isUploaded()) {
+                    mPreviousFlipTick = currentTick;
+                    createCurrentSlide();
+                } else {
+                    mPendingFrames++;
+                }
             }
         } // if there is a currently active slide and there is some time before the end of slide...
         else if (!mFinished && mCurrentSlide != null && deltaTime < OVEREXPOSE_TIME) {
             boolean isLast;
             synchronized (listLock) {
-                isLast = !mSlideIterator.hasNext();
+                isLast = !mSlideWindow.hasNext();
             }
             if (!isLast) {
                 // decreasing to zero
@@ -224,15 +401,48 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
                 mOverexposeInProgress = true;
             }
         }
+    }
 
-        if (glText == null) {
-            throw new RuntimeException("GLText had not created yet");
-        }
-
+    // Acquires the font of the next slide, its atlas is uploaded over the next frames
+    private void stageSlide(Slide slide) {
+        final long start = System.nanoTime();
+        mPendingSlide = slide;
+        // the atlas of the first slide was loaded with the deck
+        final FontAtlas prefetched = mFirstAtlas != null && slide == mSlideSource.getBeginning()
+                ? mFirstAtlas : mPrefetcher.take(slide);
+        mFirstAtlas = null;
+        mPendingGLText = acquireGLText(slide, prefetched);
+        mPendingAcquireTime = System.nanoTime() - start;
+        mPendingFrames = 0;
     }
 
+    // Makes the staged slide current
     private void createCurrentSlide() {
-        Log.d(TAG, "Flipped to " + mCurrentSlide.getText().split("\n")[0]);
+        final long flipStart = System.nanoTime();
+        final GLText previous = glText;
+        mCurrentSlide = mPendingSlide;
+        glText = mPendingGLText;
+        mPendingSlide = null;
+        mPendingGLText = null;
+        if (previous != null)
+            mFontPool.release(previous);
+        // a shared atlas may be rasterized at another size than the slide asks for
+        glText.setScale((float) mCurrentSlide.getFontSize() / atlasSize(mCurrentSlide));
+        mCurrentLayout = SlideLayout.create(mCurrentSlide, glText);
+        final long hitch = (mPendingAcquireTime + System.nanoTime() - flipStart) / 1000000;
+        mMaxFlipHitch = Math.max(mMaxFlipHitch, hitch);
+        Log.d(TAG, "Flip hitch " + hitch + " ms, max " + mMaxFlipHitch + " ms, waited " + mPendingFrames
+                + " frames for " + mGLState.uploads + ", " + mPrefetcher);
+        Log.d(TAG, "Font " + mFontPool + " GL objects " + mGLState.resources);
+        Log.d(TAG, "Atlas " + glText.textureWidth + "x" + glText.textureHeight + " fill "
+                + Math.round(glText.fillRatio * 100) + "% textureBytes=" + glText.getTextureBytes() + " "
+                + mResourceLoader.getAtlasCache() + " " + mResourceLoader.getDeckBundle());
+
+        prefetchUpcomingSlides();
+
+        Log.d(TAG, "Flipped to " + mCurrentLayout.getFirstLine() + " after framesDrawn=" + mScheduler.framesDrawn
+                + " framesSkipped=" + mScheduler.framesSkipped);
+        mScheduler.resetStats();
 
         // Activate new slide
         mAutoZoomInProgress = true;
@@ -244,26 +454,44 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
         mDX = mDY = 0;
         mLightingCounterPhase = 0.0f;
 
-        mSlideTimeMultiplier = mCurrentSlide.equals(mStarGreeterData.getBeginning()) ? 2 : 1;
-        mFlybyTime = mSlideTimeMultiplier * mStarGreeterData.getSlideTime() * 1000 / 3;
+        mSlideTimeMultiplier = mCurrentSlide.equals(mSlideSource.getBeginning()) ? 2 : 1;
+        mFlybyTime = mSlideTimeMultiplier * mSlideSource.getSlideTime() * 1000 / 3;
 
         cameraCounterMin = SystemClock.elapsedRealtime();
         cameraCounterMax = cameraCounterMin + mFlybyTime;
 
         mTouched = false;
         reportedPerSlide = false;
+    }
 
-        createGLText();
+    private GLText acquireGLText(Slide slide, FontAtlas prefetched) {
+        // Take the font from the pool (set size + padding), queues the prefetched atlas or loads it if needed
+        return mFontPool.acquire(slide.getFontName(), atlasSize(slide), FONT_PAD, FONT_PAD,
+                deckText(slide), prefetched);
     }
 
-    private void createGLText() {
-        glText = new GLText(mResourceLoader);
-        // Load the font from file (set size + padding), creates the texture
-        glText.load(mCurrentSlide.getFontName(), mCurrentSlide.getFontSize(), 2, 2);
+    // The characters of the deck drawn with the font of a slide, as far as they are known; those of the slide
+    // itself always are
+    private String deckText(Slide slide) {
+        mDeckFonts.add(slide);
+        return mDeckFonts.getText(slide);
     }
 
-    private String[] getCurrentSlideLines() {
-        return mCurrentSlide.getText().split("\\r?\\n");
+    // Rasterizes the fonts of the next slides in the background unless the pool already has them
+    private void prefetchUpcomingSlides() {
+        final Map<Slide, String> upcoming = new LinkedHashMap<Slide, String>();
+        for (int i = 0; i < AtlasPrefetcher.LOOKAHEAD; i++) {
+            final Slide slide;
+            synchronized (listLock) {
+                slide = mSlideWindow.peek(i);
+            }
+            if (slide == null)
+                break;
+            final String text = deckText(slide);
+            if (!mFontPool.contains(slide.getFontName(), atlasSize(slide), FONT_PAD, FONT_PAD, text))
+                upcoming.put(slide, text);
+        }
+        mPrefetcher.prefetch(upcoming);
     }
 
     private float[] dupMatrix(float[] input) {
@@ -275,29 +503,86 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
     public void onSurfaceCreated(GL10 unused, EGLConfig config) {
 
         Log.d(TAG, "Context recreated");
+        mReleased = false;
+
+        // a new context starts with the default state
+        mGLState = new GLState(mErrorCheck);
+        mFontPool = new FontAtlasPool(mResourceLoader, mGLState, FONT_FLAGS);
 
         // Set the background frame color
-        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        mGLState.clearColor(0.0f, 0.0f, 0.0f, 1.0f);
 
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        mGLState.enable(GLES20.GL_BLEND);
+        mGLState.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 
-        mBackground = new Background(mResourceLoader);
+        mBackground = null;
+        createBackground();
+        mContextCreated = true;
 
+        // the fonts died with the old context and its pool, their atlases are uploaded again
+        final FontAtlas pendingAtlas = mPendingGLText != null ? mPendingGLText.getAtlas() : null;
         if (glText != null) {
             Log.d(TAG, "Recreate gltext");
-            createGLText();
+            glText = acquireGLText(mCurrentSlide, glText.getAtlas());
+            glText.setScale((float) mCurrentSlide.getFontSize() / atlasSize(mCurrentSlide));
+            mCurrentLayout = SlideLayout.create(mCurrentSlide, glText);
         }
+        if (mPendingSlide != null)
+            mPendingGLText = acquireGLText(mPendingSlide, pendingAtlas);
+    }
+
+    // Creates the background once its pixels are decoded
+    private void createBackground() {
+        if (mBackgroundImage == null) {
+            if (!mBackgroundLoading.isDone())
+                return;
+            try {
+                mBackgroundImage = mBackgroundLoading.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Can not load the background", e.getCause());
+            }
+        }
+        // decoded pixels survive the context, a new one only uploads them
+        mBackground = new Background(mResourceLoader, mGLState, mBackgroundImage, Vertices.STORAGE_STATIC);
     }
 
     @Override
     public void onDrawFrame(GL10 unused) {
-        flipSlideIfNeeded();
+        if (mReleased)
+            return;
+        // take what the background threads have loaded
+        if (mBackground == null)
+            createBackground();
+        if (mSlideWindow == null)
+            startTimeline();
+        final boolean loading = mBackground == null || mSlideWindow == null;
+        // fill queued textures within the frame budget, a staged slide flips once its atlas is complete
+        final boolean uploading = mGLState.uploads.process();
+        if (mSlideWindow != null)
+            flipSlideIfNeeded();
+        mGLState.resetStats();
 
         // Draw background color
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        mGLState.clear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+
+        if (mBackground != null) {
+            mBackground.draw();
+            if (!mBackgroundShown && mBackground.isUploaded()) {
+                mBackgroundShown = true;
+                StartupTrace.mark("first frame");
+            }
+        }
 
-        mBackground.draw();
+        if (glText == null || !glText.isUploaded()) {
+            // the first slide or a font of a recreated context is not uploaded yet. while something is still
+            // loading in the background the loader wakes the view when it is done
+            mGLState.endFrame();
+            mScheduler.frameDrawn(!loading || uploading, false, false, -1);
+            return;
+        }
 
         // adjust camera distance
 
@@ -374,30 +659,68 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
         Matrix.multiplyMM(mMVPMatrix, 0, dupMatrix(mMVPMatrix), 0, mTranslationMatrix, 0);
 
         // scale text
-        int stringsWidth = 0;
-        for (String str : getCurrentSlideLines()) {
-            int len = 0;
-            for (int i = 0; i < str.length(); i++) {
-                len += glText.getCharWidth(str.charAt(i));
-            }
-            stringsWidth = Math.max(stringsWidth, len);
-        }
-        float stringsHeight = getCurrentSlideLines().length * glText.getCharHeight() +
-                (getCurrentSlideLines().length - 1) * glText.getCharHeight() * 0.2f;
-
         float preScale = 1.2f;
-        float scaleX = preScale * (PROJECTION_SIZE * mRatio / stringsWidth);
-        float scaleY = preScale * (PROJECTION_SIZE / stringsHeight);
-        float scale = Math.min(scaleX, scaleY);
-        if (!reportedPerSlide) {
-            Log.d(TAG, "scaleX = " + scaleX + " scaleY = " + scaleY + " scale = " + scale + " maxStringLen=" + stringsWidth);
-            reportedPerSlide = true;
-        }
+        float scale = mCurrentLayout.fitScale(PROJECTION_SIZE, mRatio, preScale);
         Matrix.setIdentityM(mScaleMatrix, 0);
         Matrix.scaleM(mScaleMatrix, 0, scale, scale, 1.0f);
         Matrix.multiplyMM(mMVPMatrix, 0, dupMatrix(mMVPMatrix), 0, mScaleMatrix, 0);
 
+        // screen pixels per atlas texel at the text plane: distance field edges are smoothed over one pixel,
+        // and far away text is drawn from a smaller level of the atlas
+        final float pixelsPerUnit = mSurfaceHeight * NEAR_PLANE / (2 * mProjectionTop * mDistance);
+        glText.setPixelScale(pixelsPerUnit * scale * glText.getScaleY());
+
+        glText.resetStats();
         drawText();
+
+        if (!StartupTrace.isFinished()) {
+            StartupTrace.finish("first slide");
+            Log.d(TAG, "Fonts at first slide: " + mResourceLoader.getFontStats());
+        }
+        if (mResumeTime != 0) {
+            Log.d(TAG, "Resume to first frame " + (System.nanoTime() - mResumeTime) / 1000000 + " ms, context "
+                    + (mContextCreated ? "created" : "kept") + ", " + mGLState.uploads);
+            mResumeTime = 0;
+            mContextCreated = false;
+        }
+
+        if (!reportedPerSlide) {
+            Log.d(TAG, "scale = " + scale + " maxStringLen=" + mCurrentLayout.getWidth()
+                    + " atlasLevel=" + glText.getLevel()
+                    + " glyphs=" + mCurrentLayout.getSpriteCount()
+                    + " drawCalls=" + glText.getDrawCalls()
+                    + " matrixUploads=" + glText.getMatrixUploads()
+                    + " vertexBytesCopied=" + glText.getVertexBytesCopied()
+                    + " vertexBytesUploaded=" + glText.getVertexBytesUploaded()
+                    + " glCallsIssued=" + mGLState.issued
+                    + " glCallsElided=" + mGLState.elided
+                    + " glErrors=" + mErrorCheck.errors
+                    + " glErrorQueries=" + mErrorCheck.queries
+                    + " glErrorsSinceReport=" + mReportGlErrors
+                    + " lastGlError=" + mLastGlError);
+            mReportGlErrors = 0;
+            reportedPerSlide = true;
+        }
+
+        mGLState.endFrame();
+
+        // an upload in progress needs every frame to finish
+        mScheduler.frameDrawn(mOverexposeInProgress || uploading || mPendingSlide != null, mAutoZoomInProgress,
+                mDynamicLightingInProgress, timeToNextEvent(time));
+    }
+
+    // Time until the timeline changes the picture on its own: the fade before a flip or the flip itself
+    private long timeToNextEvent(long currentTick) {
+        if (mFinished)
+            return -1;
+        long deltaTime = calculateDeltaTime(currentTick);
+        boolean isLast;
+        synchronized (listLock) {
+            isLast = !mSlideWindow.hasNext();
+        }
+        if (!isLast && deltaTime > OVEREXPOSE_TIME)
+            return deltaTime - OVEREXPOSE_TIME;
+        return Math.max(deltaTime, 0);
     }
 
     private void drawText() {
@@ -414,17 +737,7 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
         glText.begin(Color.red(color), Color.green(color), Color.blue(color), alpha, mMVPMatrix);
 //        glText.begin(1,1,1,1, mMVPMatrix);
 
-        final String[] strings = getCurrentSlideLines();
-
-        // calcualate positions
-        final float hf = glText.getCharHeight();
-        final float h0 = hf * 0.2f;
-        final float h = strings.length * (hf + h0) - h0;
-
-        for (int i = 0; i < strings.length; i++) {
-            float y = -h / 2 + hf / 2 + i * (hf + h0);
-            glText.drawC(strings[strings.length - i - 1], 0, y, 0);
-        }
+        mCurrentLayout.draw(glText);
 
 //        glText.drawTexture(0,0, mMVPMatrix);
 //            glText.draw(String.format("%.1f %.1f", mVelX, mVelY), 30, 30, 0);
@@ -439,7 +752,7 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
 
         // Adjust the viewport based on geometry changes,
         // such as screen rotation
-        GLES20.glViewport(0, 0, width, height);
+        mGLState.viewport(0, 0, width, height);
 
         // this projection matrix is applied to object coordinates
         // in the onDrawFrame() method
@@ -450,6 +763,8 @@ public class StarGreeterRenderer implements GLSurfaceView.Renderer {
             top /= mRatio;
             bottom /= mRatio;
         }
+        mSurfaceHeight = height;
+        mProjectionTop = top;
         Matrix.frustumM(mProjMatrix, 0, mRatio * bottom, mRatio * top, bottom, top, NEAR_PLANE, FAR_PLANE);
     }
 
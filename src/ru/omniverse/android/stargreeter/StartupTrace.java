@@ -0,0 +1,62 @@
+package ru.omniverse.android.stargreeter;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timestamps of the startup phases, from the creation of the activity to the first frame showing a slide,
+ * logged as one trace when that frame is drawn. Phases run on several threads and may overlap; times are
+ * milliseconds since the activity was created.
+ */
+final class StartupTrace {
+
+    private static long start;
+    private static boolean finished = true;
+    private static final List<String> phases = new ArrayList<String>();
+
+    private StartupTrace() {
+    }
+
+    // Starts a new trace, called when the activity is created
+    public static synchronized void start() {
+        start = System.nanoTime();
+        finished = false;
+        phases.clear();
+    }
+
+    //--Phase--//
+    // D: record a phase that ends now, ignored once the trace is finished. may be called on any thread.
+    // A: name - e.g. "parse"
+    //    phaseStart - System.nanoTime() when the phase began
+    // R: [none]
+    public static synchronized void phase(String name, long phaseStart) {
+        if (finished)
+            return;
+        final long end = System.nanoTime();
+        phases.add(String.format("%-14s %6d .. %6d ms %6d ms  %s", name, (phaseStart - start) / 1000000,
+                (end - start) / 1000000, (end - phaseStart) / 1000000, Thread.currentThread().getName()));
+    }
+
+    // Records a moment, such as the first frame
+    public static void mark(String name) {
+        phase(name, System.nanoTime());
+    }
+
+    // Records the last moment of the trace and logs it
+    public static synchronized void finish(String name) {
+        if (finished)
+            return;
+        mark(name);
+        finished = true;
+        Log.d(Utils.TAG, "Startup trace, " + (System.nanoTime() - start) / 1000000 + " ms:");
+        for (String phase : phases) {
+            Log.d(Utils.TAG, "  " + phase);
+        }
+    }
+
+    public static synchronized boolean isFinished() {
+        return finished;
+    }
+}
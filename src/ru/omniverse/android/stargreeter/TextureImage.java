@@ -0,0 +1,69 @@
+package ru.omniverse.android.stargreeter;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoded pixels of a texture in a direct buffer, with their GL layout.
+ * <p/>
+ * An image outlives the bitmap it was copied from and any GL context: a new context uploads it again
+ * through {@link TextureUploader#enqueue(int, TextureImage)} without decoding the resource again.
+ * Uploads only read the pixels, so one image can be queued any number of times.
+ */
+class TextureImage {
+
+    final int width, height;                // pixels
+    final int format, type;                 // GL layout, e.g. GL_RGBA and GL_UNSIGNED_BYTE
+    final int pixelBytes;
+    final ByteBuffer pixels;                // tightly packed rows
+
+    TextureImage(int width, int height, int format, int type, int pixelBytes, ByteBuffer pixels) {
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.type = type;
+        this.pixelBytes = pixelBytes;
+        this.pixels = pixels;
+    }
+
+    //--From Bitmap--//
+    // D: copy the pixels of a bitmap, the bitmap is left as it is
+    // A: bitmap - an ALPHA_8, RGB_565 or ARGB_8888 image
+    // R: the image, or null for another config or padded rows
+    public static TextureImage fromBitmap(Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final Bitmap.Config config = bitmap.getConfig();
+        final TextureImage image;
+        if (config == Bitmap.Config.ALPHA_8) {
+            image = allocate(width, height, GLES20.GL_ALPHA, GLES20.GL_UNSIGNED_BYTE, 1);
+        } else if (config == Bitmap.Config.RGB_565) {
+            image = allocate(width, height, GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5, 2);
+        } else if (config == Bitmap.Config.ARGB_8888) {
+            image = allocate(width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 4);
+        } else {
+            return null;
+        }
+        if (bitmap.getRowBytes() != width * image.pixelBytes)
+            return null;
+        bitmap.copyPixelsToBuffer(image.pixels);
+        image.pixels.rewind();
+        return image;
+    }
+
+    private static TextureImage allocate(int width, int height, int format, int type, int pixelBytes) {
+        return new TextureImage(width, height, format, type, pixelBytes,
+                ByteBuffer.allocateDirect(width * height * pixelBytes));
+    }
+
+    public int getBytes() {
+        return width * height * pixelBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TextureImage{" + width + "x" + height + ", " + getBytes() + " bytes}";
+    }
+}
@@ -0,0 +1,155 @@
+package ru.omniverse.android.stargreeter;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Texture uploads of one GL context, spread over frames.
+ * <p/>
+ * {@link #enqueue} allocates the texture storage at once and keeps the pixels of the image; the pixels
+ * reach the texture in strips of {@link #STRIP_BYTES} with glTexSubImage2D, as many strips per frame
+ * as fit the frame budget of {@link #process()}. A texture must not be sampled before
+ * {@link #isPending} returns false for it, its contents are undefined until then.
+ * <p/>
+ * Deleting a texture through {@link GLState#deleteTexture} cancels its upload.
+ */
+class TextureUploader {
+
+    public static final long DEFAULT_BUDGET_MS = 3;
+    // rows uploaded with one glTexSubImage2D call add up to about this size
+    public static final int STRIP_BYTES = 64 * 1024;
+
+    private static class Upload {
+        final int texture;
+        final int width, height;
+        final int format, type;
+        final int rowBytes;
+        ByteBuffer pixels;
+        int nextRow;
+
+        Upload(int texture, int width, int height, int format, int type, int rowBytes, ByteBuffer pixels) {
+            this.texture = texture;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.type = type;
+            this.rowBytes = rowBytes;
+            this.pixels = pixels;
+        }
+    }
+
+    private final GLState mState;
+    private final LinkedList<Upload> mQueue = new LinkedList<Upload>();
+    private long mBudgetNs = DEFAULT_BUDGET_MS * 1000000;
+    private boolean mUnpackAligned;
+
+    public int enqueued;                    // textures queued since creation
+    public int completed;                   // textures filled completely
+    public int strips;                      // glTexSubImage2D calls
+    public int frames;                      // process() calls that had work to do
+
+    TextureUploader(GLState state) {
+        mState = state;
+    }
+
+    // Upload time allowed per frame; the first strip of a frame is always uploaded
+    public void setFrameBudget(long ms) {
+        mBudgetNs = ms * 1000000;
+    }
+
+    //--Enqueue--//
+    // D: allocate the storage of a texture and queue its pixels for upload
+    // A: texture - the texture to fill, its parameters already set
+    //    image - decoded pixels, kept for uploads to later contexts
+    // R: [none]
+    public void enqueue(int texture, TextureImage image) {
+        enqueue(texture, image.pixels, image.width, image.height, image.format, image.type, image.pixelBytes);
+    }
+
+    // A: pixels - direct buffer of tightly packed rows from position 0, only read (its position is left as is)
+    //    width, height - the image size (pixels)
+    //    format, type - the GL layout of the pixels, e.g. GL_ALPHA and GL_UNSIGNED_BYTE
+    //    pixelBytes - bytes per pixel
+    public void enqueue(int texture, ByteBuffer pixels, int width, int height, int format, int type,
+                        int pixelBytes) {
+        final int rowBytes = width * pixelBytes;
+        mState.bindTexture(0, texture);
+        mState.texImage2D(width, height, format, type, rowBytes * height);
+        mQueue.add(new Upload(texture, width, height, format, type, rowBytes, pixels.duplicate()));
+        enqueued++;
+    }
+
+    //--Process--//
+    // D: upload queued strips until the frame budget is spent. called once per frame on the GL thread.
+    // A: [none]
+    // R: true if uploads are left for later frames
+    public boolean process() {
+        if (mQueue.isEmpty())
+            return false;
+        frames++;
+        final long start = System.nanoTime();
+        do {
+            uploadStrip(mQueue.getFirst());
+        } while (!mQueue.isEmpty() && System.nanoTime() - start < mBudgetNs);
+        return !mQueue.isEmpty();
+    }
+
+    private void uploadStrip(Upload upload) {
+        if (!mUnpackAligned) {
+            // rows are packed without padding
+            mState.pixelStore(GLES20.GL_UNPACK_ALIGNMENT, 1);
+            mUnpackAligned = true;
+        }
+        final int rows = Math.min(Math.max(1, STRIP_BYTES / upload.rowBytes), upload.height - upload.nextRow);
+        upload.pixels.position(upload.nextRow * upload.rowBytes);
+        mState.bindTexture(0, upload.texture);
+        mState.texSubImage2D(0, upload.nextRow, upload.width, rows, upload.format, upload.type, upload.pixels);
+        upload.nextRow += rows;
+        strips++;
+
+        if (upload.nextRow == upload.height) {
+            mQueue.removeFirst();
+            upload.pixels = null;
+            completed++;
+        }
+    }
+
+    // Whether a texture still has pixels queued
+    public boolean isPending(int texture) {
+        for (Upload upload : mQueue) {
+            if (upload.texture == texture)
+                return true;
+        }
+        return false;
+    }
+
+    public boolean isIdle() {
+        return mQueue.isEmpty();
+    }
+
+    // Drops the queued pixels of a texture
+    void cancel(int texture) {
+        for (Iterator<Upload> it = mQueue.iterator(); it.hasNext(); ) {
+            if (it.next().texture == texture)
+                it.remove();
+        }
+    }
+
+    // Queued bytes not uploaded yet
+    public long getPendingBytes() {
+        long bytes = 0;
+        for (Upload upload : mQueue) {
+            bytes += (long) (upload.height - upload.nextRow) * upload.rowBytes;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TextureUploader{queued=" + mQueue.size() + ", pendingBytes=" + getPendingBytes()
+                + ", completed=" + completed + ", strips=" + strips + ", frames=" + frames + '}';
+    }
+}
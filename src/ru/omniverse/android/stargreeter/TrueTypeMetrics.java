@@ -0,0 +1,154 @@
+package ru.omniverse.android.stargreeter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The line metrics and the advances of a TrueType font, read from its head, hhea, hmtx and cmap tables
+ * instead of measured by a renderer.
+ * <p/>
+ * {@link FontAtlas#rasterize} takes them from here both on the device and in the DeckCompiler, so an atlas
+ * drawn with AWT at build time lays out text exactly like one drawn with Paint. Advances are unhinted.
+ */
+final class TrueTypeMetrics {
+
+    private static final int PLATFORM_UNICODE = 0;
+    private static final int PLATFORM_WINDOWS = 3;
+    private static final int ENCODING_WINDOWS_BMP = 1;
+
+    private final int mUnitsPerEm;
+    private final int mYMin, mYMax;                     // font box (font units, y up)
+    private final int mAscender, mDescender;            // recommended line (font units, y up)
+    private final int[] mAdvances;                      // per glyph with metrics of its own (font units)
+    // format 4 character map: segments of characters and how they map to glyphs
+    private final ByteBuffer mCmap;
+    private final int mSegCount;
+
+    private TrueTypeMetrics(ByteBuffer font) throws IOException {
+        final int head = table(font, "head");
+        final int hhea = table(font, "hhea");
+        final int hmtx = table(font, "hmtx");
+        mUnitsPerEm = font.getShort(head + 18) & 0xFFFF;
+        mYMin = font.getShort(head + 38);
+        mYMax = font.getShort(head + 42);
+        mAscender = font.getShort(hhea + 4);
+        mDescender = font.getShort(hhea + 6);
+        mAdvances = new int[font.getShort(hhea + 34) & 0xFFFF];
+        for (int g = 0; g < mAdvances.length; g++) {
+            mAdvances[g] = font.getShort(hmtx + 4 * g) & 0xFFFF;
+        }
+        if (mUnitsPerEm == 0 || mAdvances.length == 0)
+            throw new IOException("Broken font metrics");
+
+        mCmap = unicodeMap(font, table(font, "cmap"));
+        mSegCount = (mCmap.getShort(6) & 0xFFFF) / 2;
+    }
+
+    //--Read--//
+    // D: parse the tables of a font file
+    // A: in - the font file, closed
+    // R: the metrics
+    // throws IOException if the file is unreadable, or not a TrueType font with a Unicode character map
+    public static TrueTypeMetrics read(InputStream in) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(in.available(), 64 * 1024));
+        try {
+            final byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        try {
+            return new TrueTypeMetrics(ByteBuffer.wrap(bytes.toByteArray()));
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated font file", e);
+        }
+    }
+
+    // Offset of a table in the file
+    private static int table(ByteBuffer font, String tag) throws IOException {
+        final int tableCnt = font.getShort(4) & 0xFFFF;
+        for (int t = 0; t < tableCnt; t++) {
+            final int record = 12 + 16 * t;
+            if (font.getInt(record) == tag(tag))
+                return font.getInt(record + 8);
+        }
+        throw new IOException("No " + tag + " table in the font");
+    }
+
+    private static int tag(String tag) {
+        return tag.charAt(0) << 24 | tag.charAt(1) << 16 | tag.charAt(2) << 8 | tag.charAt(3);
+    }
+
+    // The format 4 subtable mapping the BMP to glyphs
+    private static ByteBuffer unicodeMap(ByteBuffer font, int cmap) throws IOException {
+        final int mapCnt = font.getShort(cmap + 2) & 0xFFFF;
+        for (int m = 0; m < mapCnt; m++) {
+            final int record = cmap + 4 + 8 * m;
+            final int platform = font.getShort(record) & 0xFFFF;
+            final int encoding = font.getShort(record + 2) & 0xFFFF;
+            final int offset = cmap + font.getInt(record + 4);
+            if ((platform == PLATFORM_UNICODE || platform == PLATFORM_WINDOWS && encoding == ENCODING_WINDOWS_BMP)
+                    && font.getShort(offset) == 4) {
+                final ByteBuffer map = font.duplicate();
+                map.position(offset);
+                return map.slice();
+            }
+        }
+        throw new IOException("No Unicode character map in the font");
+    }
+
+    // Glyph of a character, 0 (the missing glyph) if the font has none
+    private int glyph(char c) {
+        final int endCodes = 14, startCodes = endCodes + 2 * mSegCount + 2;
+        final int deltas = startCodes + 2 * mSegCount, rangeOffsets = deltas + 2 * mSegCount;
+        for (int s = 0; s < mSegCount; s++) {
+            if (c > (mCmap.getShort(endCodes + 2 * s) & 0xFFFF))
+                continue;
+            final int start = mCmap.getShort(startCodes + 2 * s) & 0xFFFF;
+            if (c < start)
+                return 0;
+            final int delta = mCmap.getShort(deltas + 2 * s);
+            final int rangeOffset = mCmap.getShort(rangeOffsets + 2 * s) & 0xFFFF;
+            if (rangeOffset == 0)
+                return (c + delta) & 0xFFFF;
+            final int glyph = mCmap.getShort(rangeOffsets + 2 * s + rangeOffset + 2 * (c - start)) & 0xFFFF;
+            return glyph != 0 ? (glyph + delta) & 0xFFFF : 0;
+        }
+        return 0;
+    }
+
+    // Advance of a character (Pixels at the size)
+    public float getAdvance(char c, float size) {
+        final int glyph = glyph(c);
+        return scale(mAdvances[Math.min(glyph, mAdvances.length - 1)], size);
+    }
+
+    // Top of the font box above the baseline, Paint.FontMetrics.top negated (Pixels at the size)
+    public float getTop(float size) {
+        return scale(mYMax, size);
+    }
+
+    // Bottom of the font box below the baseline, as Paint.FontMetrics.bottom (Pixels at the size)
+    public float getBottom(float size) {
+        return scale(-mYMin, size);
+    }
+
+    // Recommended distance above the baseline, Paint.FontMetrics.ascent negated (Pixels at the size)
+    public float getAscent(float size) {
+        return scale(mAscender, size);
+    }
+
+    // Recommended distance below the baseline, as Paint.FontMetrics.descent (Pixels at the size)
+    public float getDescent(float size) {
+        return scale(-mDescender, size);
+    }
+
+    private float scale(int units, float size) {
+        return units * size / mUnitsPerEm;
+    }
+}
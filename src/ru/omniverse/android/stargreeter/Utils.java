@@ -1,23 +1,18 @@
 package ru.omniverse.android.stargreeter;
 
-import android.graphics.Bitmap;
 import android.opengl.GLES20;
 import android.util.Log;
 
-import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
 public class Utils {
 
     public static final String TAG = "StarGreeter";
 
-    public static int compileShader(final int shaderType, final String shaderSource) {
-        int shaderHandle = GLES20.glCreateShader(shaderType);
+    // Log microbenchmark results at startup (see Benchmarks)
+    static final boolean RUN_BENCHMARKS = false;
+
+    public static int compileShader(GLState state, final int shaderType, final String shaderSource) {
+        int shaderHandle = state.createShader(shaderType,
+                shaderType == GLES20.GL_VERTEX_SHADER ? "vertex shader" : "fragment shader");
 
         if (shaderHandle != 0) {
             // Pass in the shader source.
@@ -33,7 +28,7 @@ public class Utils {
             // If the compilation failed, delete the shader.
             if (compileStatus[0] == 0) {
                 Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shaderHandle));
-                GLES20.glDeleteShader(shaderHandle);
+                state.deleteShader(shaderHandle);
                 shaderHandle = 0;
             }
         }
@@ -48,8 +43,11 @@ public class Utils {
         return shaderHandle;
     }
 
-    public static int createAndLinkProgram(final int vertexShaderHandle, final int fragmentShaderHandle, final String[] attributes) {
-        int programHandle = GLES20.glCreateProgram();
+    // Returns the linked program with its active attributes and uniforms reflected.
+    // The shaders are deleted, the program keeps what it needs.
+    public static ShaderProgram createAndLinkProgram(GLState state, final int vertexShaderHandle,
+                                                     final int fragmentShaderHandle, final String[] attributes) {
+        int programHandle = state.createProgram("program");
 
         if (programHandle != 0) {
             // Bind the vertex shader to the program.
@@ -76,52 +74,67 @@ public class Utils {
             // If the link failed, delete the program.
             if (linkStatus[0] == 0) {
                 Log.e(TAG, "Error compiling program: " + GLES20.glGetProgramInfoLog(programHandle));
-                GLES20.glDeleteProgram(programHandle);
+                state.deleteProgram(programHandle);
                 programHandle = 0;
+            } else {
+                GLES20.glDetachShader(programHandle, vertexShaderHandle);
+                GLES20.glDetachShader(programHandle, fragmentShaderHandle);
             }
         }
+        state.deleteShader(vertexShaderHandle);
+        state.deleteShader(fragmentShaderHandle);
 
         if (programHandle == 0) {
             throw new RuntimeException("Error creating program.");
         }
 
-        return programHandle;
+        final ShaderProgram program = new ShaderProgram(programHandle);
+        Log.d(TAG, "Linked " + program);
+        return program;
     }
 
-    public static int createShaderProgram(ResourceLoader loader, final int vertexShaderResourceId, final int fragmentShaderResourceId,
-                                          final String[] attributes) {
-        final int vertexShaderHandle = Utils.compileShader(GLES20.GL_VERTEX_SHADER, loader.loadShader(vertexShaderResourceId));
-        final int fragmentShaderHandle = Utils.compileShader(GLES20.GL_FRAGMENT_SHADER, loader.loadShader(fragmentShaderResourceId));
-        return Utils.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle,
+    public static ShaderProgram createShaderProgram(GLState state, ResourceLoader loader, final int vertexShaderResourceId,
+                                                    final int fragmentShaderResourceId, final String[] attributes) {
+        final long start = System.nanoTime();
+        final int vertexShaderHandle = Utils.compileShader(state, GLES20.GL_VERTEX_SHADER, loader.loadShader(vertexShaderResourceId));
+        final int fragmentShaderHandle = Utils.compileShader(state, GLES20.GL_FRAGMENT_SHADER, loader.loadShader(fragmentShaderResourceId));
+        final ShaderProgram program = Utils.createAndLinkProgram(state, vertexShaderHandle, fragmentShaderHandle,
                 attributes);
+        StartupTrace.phase("shader compile", start);
+        return program;
     }
 
-
-    public static void checkGlError(String glOperation) {
-        int error;
-        //noinspection LoopStatementThatDoesntLoop
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-            Log.e(TAG, glOperation + ": glError " + error);
-            throw new RuntimeException(glOperation + ": glError " + error);
+    // IEEE 754 half precision bits of a float, rounded to nearest even
+    public static short toHalfFloat(float value) {
+        final int bits = Float.floatToRawIntBits(value);
+        final int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+
+        if (exponent >= 0x1F) {
+            // overflow, infinity and NaN
+            boolean nan = ((bits >>> 23) & 0xFF) == 0xFF && mantissa != 0;
+            return (short) (sign | 0x7C00 | (nan ? 0x200 : 0));
+        }
+        if (exponent <= 0) {
+            // subnormal or zero
+            if (exponent < -10)
+                return (short) sign;
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+            int rest = mantissa & ((1 << shift) - 1);
+            int middle = 1 << (shift - 1);
+            if (rest > middle || (rest == middle && (half & 1) != 0))
+                half++;
+            return (short) (sign | half);
         }
-    }
-
-    public static void checkGlError() {
-        checkGlError("unnamed");
-    }
-
-    public static FloatBuffer newFloatBuffer(float[] verticesData) {
-        FloatBuffer buffer = ByteBuffer.allocateDirect(verticesData.length * 4)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        buffer.put(verticesData).position(0);
-        return buffer;
-    }
 
-    public static ShortBuffer newShortBuffer(short[] verticesData) {
-        ShortBuffer buffer = ByteBuffer.allocateDirect(verticesData.length * 2)
-                .order(ByteOrder.nativeOrder()).asShortBuffer();
-        buffer.put(verticesData).position(0);
-        return buffer;
+        int half = (exponent << 10) | (mantissa >> 13);
+        int rest = mantissa & 0x1FFF;
+        if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0))
+            half++;     // may carry into the exponent, which rounds up correctly
+        return (short) (sign | half);
     }
 
     public static void copyVector(float[] src, float[] dest) {
@@ -129,22 +142,4 @@ public class Utils {
             throw new IllegalArgumentException("Vector size mismatch");
         System.arraycopy(src, 0, dest, 0, src.length);
     }
-
-    static String bitmapHash(Bitmap bitmap) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            ByteBuffer b = ByteBuffer.allocate(4);
-            for (int i = 0; i < bitmap.getWidth(); i++) {
-                for (int j = 0; j < bitmap.getHeight(); j++) {
-                    b.clear();
-                    b.putInt(bitmap.getPixel(i, j));
-                    digest.update(b);
-                }
-            }
-            return new BigInteger(1, digest.digest()).toString(16);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
 }
@@ -0,0 +1,126 @@
+package ru.omniverse.android.stargreeter;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interleaved vertex layout: a 2D position, texture coordinates and an optional MVP matrix index.
+ * <p/>
+ * Used both to write vertices and to describe them to GL. Every component type is converted to
+ * float by the attribute fetch (texture coordinates are normalized), so the shaders see the same
+ * inputs whatever the format; {@link #getAttributes()} gives the attribute names to bind at link time.
+ */
+class VertexFormat {
+
+    // from OES_vertex_half_float, not in GLES20
+    public static final int GL_HALF_FLOAT_OES = 0x8D61;
+
+    public static final String ATTRIBUTE_POSITION = "a_Position";
+    public static final String ATTRIBUTE_TEXCOORD = "a_TexCoordinate";
+    public static final String ATTRIBUTE_MVP_INDEX = "a_MVPMatrixIndex";
+
+    // X,Y,U,V,M as floats, 20 bytes
+    public static final VertexFormat FLOAT = new VertexFormat(GLES20.GL_FLOAT, GLES20.GL_FLOAT, GLES20.GL_FLOAT);
+    // X,Y,U,V as floats, 16 bytes
+    public static final VertexFormat FLOAT_NO_INDEX = new VertexFormat(GLES20.GL_FLOAT, GLES20.GL_FLOAT, 0);
+
+    public final int positionType;      // GL_FLOAT or GL_HALF_FLOAT_OES
+    public final int texCoordType;      // GL_FLOAT or normalized GL_UNSIGNED_SHORT
+    public final int indexType;         // GL_FLOAT, GL_UNSIGNED_BYTE or 0 for no index
+    public final int positionOffset;
+    public final int texCoordOffset;
+    public final int indexOffset;
+    public final int stride;            // bytes per vertex, 4-byte aligned
+
+    // indexType - 0 if the vertices carry no MVP index, the shader then reads the default 0
+    public VertexFormat(int positionType, int texCoordType, int indexType) {
+        this.positionType = positionType;
+        this.texCoordType = texCoordType;
+        this.indexType = indexType;
+
+        positionOffset = 0;
+        texCoordOffset = align(positionOffset + 2 * sizeOf(positionType));
+        indexOffset = align(texCoordOffset + 2 * sizeOf(texCoordType));
+        stride = align(indexOffset + (indexType != 0 ? sizeOf(indexType) : 0));
+    }
+
+    // Compact text format: normalized short texture coordinates, byte MVP index if needed,
+    // half-float positions if requested and supported by the device
+    public static VertexFormat packed(boolean mvpIndex, boolean halfPositions) {
+        return new VertexFormat(halfPositions && isHalfFloatSupported() ? GL_HALF_FLOAT_OES : GLES20.GL_FLOAT,
+                GLES20.GL_UNSIGNED_SHORT,
+                mvpIndex ? GLES20.GL_UNSIGNED_BYTE : 0);
+    }
+
+    // Needs a current GL context
+    public static boolean isHalfFloatSupported() {
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return extensions != null && extensions.contains("GL_OES_vertex_half_float");
+    }
+
+    public boolean hasIndex() {
+        return indexType != 0;
+    }
+
+    public String[] getAttributes() {
+        return hasIndex()
+                ? new String[]{ATTRIBUTE_POSITION, ATTRIBUTE_TEXCOORD, ATTRIBUTE_MVP_INDEX}
+                : new String[]{ATTRIBUTE_POSITION, ATTRIBUTE_TEXCOORD};
+    }
+
+    // Writes one vertex at an absolute byte position, returns the position after it
+    public int put(ByteBuffer buffer, int index, float x, float y, float u, float v, int mvpIndex) {
+        if (positionType == GL_HALF_FLOAT_OES) {
+            buffer.putShort(index, Utils.toHalfFloat(x));
+            buffer.putShort(index + 2, Utils.toHalfFloat(y));
+        } else {
+            buffer.putFloat(index, x);
+            buffer.putFloat(index + 4, y);
+        }
+
+        if (texCoordType == GLES20.GL_UNSIGNED_SHORT) {
+            buffer.putShort(index + texCoordOffset, toUnsignedNormalized(u));
+            buffer.putShort(index + texCoordOffset + 2, toUnsignedNormalized(v));
+        } else {
+            buffer.putFloat(index + texCoordOffset, u);
+            buffer.putFloat(index + texCoordOffset + 4, v);
+        }
+
+        if (indexType == GLES20.GL_UNSIGNED_BYTE) {
+            buffer.put(index + indexOffset, (byte) mvpIndex);
+        } else if (indexType == GLES20.GL_FLOAT) {
+            buffer.putFloat(index + indexOffset, mvpIndex);
+        }
+
+        return index + stride;
+    }
+
+    private static short toUnsignedNormalized(float value) {
+        return (short) Math.round(Math.max(0.0f, Math.min(value, 1.0f)) * 0xFFFF);
+    }
+
+    private static int sizeOf(int type) {
+        switch (type) {
+            case GLES20.GL_FLOAT:
+                return 4;
+            case GL_HALF_FLOAT_OES:
+            case GLES20.GL_UNSIGNED_SHORT:
+                return 2;
+            case GLES20.GL_UNSIGNED_BYTE:
+                return 1;
+            default:
+                throw new IllegalArgumentException("Unsupported vertex component type " + type);
+        }
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+
+    @Override
+    public String toString() {
+        return "VertexFormat{stride=" + stride + ", position=" + positionType + ", texCoord=" + texCoordType
+                + ", index=" + indexType + '}';
+    }
+}
@@ -4,7 +4,6 @@ import android.opengl.GLES20;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 
 public class Vertices {
@@ -15,37 +14,66 @@ public class Vertices {
 	final static int COLOR_CNT = 4;                    // Number of Components in Vertex Color
 	final static int TEXCOORD_CNT = 2;                 // Number of Components in Vertex Texture Coords
 	final static int NORMAL_CNT = 3;                   // Number of Components in Vertex Normal
-	private static final int MVP_MATRIX_INDEX_CNT = 1; // Number of Components in MVP matrix index
+	final static int MVP_MATRIX_INDEX_CNT = 1;         // Number of Components in MVP matrix index
 	
 	final static int INDEX_SIZE = Short.SIZE / 8;      // Index Byte Size (Short.SIZE = bits)
+
+	final static int STORAGE_CLIENT = 0;               // Vertices Stay in Client Memory, Copied by the Driver on Each Draw
+	final static int STORAGE_STATIC = 1;               // Vertices in a Buffer Object, Respecified Only When Set
+	final static int STORAGE_STREAM = 2;               // Vertices Appended to an Orphaning Ring Buffer Object
+	final static int STREAM_RING_SIZE = 4;             // Ring Buffer Capacity (in Full Vertex Buffers)
 	
 	//--Members--//
 	// NOTE: all members are constant, and initialized in constructor!
 	public final int positionCnt;                      // Number of Position Components (2=2D, 3=3D)
-	public final int vertexStride;                     // Vertex Stride (Element Size of a Single Vertex)
+	public final VertexFormat format;                  // Vertex Layout and Component Types
+	public final int vertexStride;                     // Vertex Stride (Components of a Single Vertex as Floats)
 	public final int vertexSize;                       // Bytesize of a Single Vertex
-	final IntBuffer vertices;                          // Vertex Buffer
+	public final boolean hasMVPIndex;                  // Whether Vertices Carry an MVP Matrix Index
+	public final int storage;                          // Where Vertex Data Lives (STORAGE_*)
+	final ByteBuffer vertices;                         // Vertex Buffer (Direct, Native Order)
 	final ShortBuffer indices;                         // Index Buffer
 	public int numVertices;                            // Number of Vertices in Buffer
 	public int numIndices;                             // Number of Indices in Buffer
-	final int[] tmpBuffer;                             // Temp Buffer for Vertex Conversion
+	public int bytesCopied;                            // Vertex Bytes Copied on the CPU Since Reset
+	public int bytesUploaded;                          // Vertex Bytes Uploaded to Buffer Objects Since Reset
+	private ByteBuffer source;                         // Buffer Holding the Current Vertices (Client Storage)
+	private int sourceOffset;                          // Offset of the Current Vertices in source (Bytes)
+	private final BufferObject vertexObject;           // GPU Vertex Buffer (null for Client Storage)
+	private final BufferObject indexObject;            // GPU Index Buffer (null for Client Storage)
+	private int vertexOffset;                          // Byte Offset of Current Vertices in vertexObject
+	private final GLState state;                       // Render State of the Context
+	private final int attribMask;                      // Vertex Attribute Arrays Used (GLState Mask)
 	private int mTextureCoordinateHandle;
 	private int mPositionHandle;
 	private int mMVPIndexHandle;
 
 	//--Constructor--//
 	// D: create the vertices/indices as specified (for 2d/3d)
-	// A: maxVertices - maximum vertices allowed in buffer
+	// A: state - render state of the context the vertices are drawn in
+	//    format - the vertex layout, its attribute names must be the ones bound in the program
+	//    maxVertices - maximum vertices allowed in buffer
 	//    maxIndices - maximum indices allowed in buffer
-	public Vertices(int programHandle, int maxVertices, int maxIndices)  {
-		//      this.gl = gl;                                   // Save GL Instance
+	//    storage - where vertex data lives (STORAGE_*); indices go to a static buffer unless STORAGE_CLIENT
+	public Vertices(GLState state, ShaderProgram program, VertexFormat format, int maxVertices, int maxIndices, int storage)  {
+		this.state = state;                             // Save Render State
+		// initialize the shader attribute handles
+		mTextureCoordinateHandle = program.getAttribLocation(VertexFormat.ATTRIBUTE_TEXCOORD);
+		mMVPIndexHandle = program.getAttribLocation(VertexFormat.ATTRIBUTE_MVP_INDEX);
+		mPositionHandle = program.getAttribLocation(VertexFormat.ATTRIBUTE_POSITION);
+
 		this.positionCnt = POSITION_CNT_2D;  // Set Position Component Count
-		this.vertexStride = this.positionCnt + TEXCOORD_CNT + MVP_MATRIX_INDEX_CNT;  // Calculate Vertex Stride
-		this.vertexSize = this.vertexStride * 4;        // Calculate Vertex Byte Size
+		this.format = format;                           // Save Vertex Format
+		this.hasMVPIndex = format.hasIndex() && mMVPIndexHandle >= 0;  // Without an Index the Shader Reads the Default 0
+		this.vertexStride = this.positionCnt + TEXCOORD_CNT + (format.hasIndex() ? MVP_MATRIX_INDEX_CNT : 0);  // Calculate Vertex Stride
+		this.vertexSize = format.stride;                // Save Vertex Byte Size
+		this.attribMask = GLState.attribBit(mPositionHandle) | GLState.attribBit(mTextureCoordinateHandle)
+				| (hasMVPIndex ? GLState.attribBit(mMVPIndexHandle) : 0);
 
 		ByteBuffer buffer = ByteBuffer.allocateDirect(maxVertices * vertexSize);  // Allocate Buffer for Vertices (Max)
 		buffer.order( ByteOrder.nativeOrder() );        // Set Native Byte Order
-		this.vertices = buffer.asIntBuffer();           // Save Vertex Buffer
+		this.vertices = buffer;                         // Save Vertex Buffer
+		this.source = this.vertices;
 
 		if ( maxIndices > 0 )  {                        // IF Indices Required
 			buffer = ByteBuffer.allocateDirect(maxIndices * INDEX_SIZE);  // Allocate Buffer for Indices (MAX)
@@ -58,33 +86,87 @@ public class Vertices {
 		numVertices = 0;                                // Zero Vertices in Buffer
 		numIndices = 0;                                 // Zero Indices in Buffer
 
-		this.tmpBuffer = new int[maxVertices * vertexSize / 4];  // Create Temp Buffer
-
-		// initialize the shader attribute handles
-		mTextureCoordinateHandle = GLES20.glGetAttribLocation(programHandle, "a_TexCoordinate");
-        Utils.checkGlError();
-        mMVPIndexHandle = GLES20.glGetAttribLocation(programHandle, "a_MVPMatrixIndex");
-        Utils.checkGlError();
-		mPositionHandle = GLES20.glGetAttribLocation(programHandle, "a_Position");
-        Utils.checkGlError();
+		this.storage = storage;
+		if ( storage == STORAGE_CLIENT )  {             // IF Client Storage
+			vertexObject = null;
+			indexObject = null;
+		}
+		else  {                                         // ELSE Buffer Objects
+			vertexObject = new BufferObject(state, GLES20.GL_ARRAY_BUFFER, storage == STORAGE_STREAM,
+					maxVertices * vertexSize * STREAM_RING_SIZE);
+			indexObject = maxIndices > 0 ? new BufferObject(state, GLES20.GL_ELEMENT_ARRAY_BUFFER, false, 0) : null;
+		}
+		vertexOffset = 0;
 	}
 
 	//--Set Vertices--//
-	// D: set the specified vertices in the vertex buffer
-	//    NOTE: optimized to use integer buffer!
-	// A: vertices - array of vertices (floats) to set
+	// D: set the specified vertices in the vertex buffer, converting them to the vertex format
+	// A: vertices - array of vertices (floats) to set, vertexStride components each (X,Y,U,V[,M])
 	//    offset - offset to first vertex in array
 	//    length - number of floats in the vertex array (total)
-	//             for easy setting use: vtx_cnt * (this.vertexSize / 4)
+	//             for easy setting use: vtx_cnt * this.vertexStride
 	// R: [none]
 	public void setVertices(float[] vertices, int offset, int length)  {
-		this.vertices.clear();                          // Remove Existing Vertices
 		int last = offset + length;                     // Calculate Last Element
-		for ( int i = offset, j = 0; i < last; i++, j++ )  // FOR Each Specified Vertex
-			tmpBuffer[j] = Float.floatToRawIntBits(vertices[i]);  // Set Vertex as Raw Integer Bits in Buffer
-		this.vertices.put( tmpBuffer, 0, length );      // Set New Vertices
-		this.vertices.flip();                           // Flip Vertex Buffer
-		this.numVertices = length / this.vertexStride;  // Save Number of Vertices
+		int index = 0;
+		for ( int i = offset; i < last; i += vertexStride )  // FOR Each Specified Vertex
+			index = format.put( this.vertices, index, vertices[i], vertices[i + 1], vertices[i + 2], vertices[i + 3],
+					format.hasIndex() ? (int) vertices[i + 4] : 0 );
+		bytesCopied += index;
+		commitVertices( index );
+	}
+
+	//--Set Vertices From Buffer--//
+	// D: make vertices held in another direct buffer current, without copying them on the CPU.
+	//    client storage draws straight from the given buffer, so it must stay unchanged until drawn.
+	// A: vertices - direct native-order buffer holding vertices in this format
+	//    offset - offset to the first vertex in the buffer (bytes)
+	//    length - number of bytes to use
+	// R: [none]
+	public void setVertices(ByteBuffer vertices, int offset, int length)  {
+		this.numVertices = length / this.vertexSize;    // Save Number of Vertices
+		if ( vertexObject != null )  {                  // IF Buffer Object Storage
+			vertices.position( offset );
+			upload( vertices, length );
+			vertices.position( 0 );
+		}
+		else  {                                         // ELSE Point at the Buffer When Binding
+			source = vertices;
+			sourceOffset = offset;
+		}
+	}
+
+	//--Write Buffer--//
+	// D: return the vertex buffer to write vertices into with absolute puts (see VertexFormat.put()).
+	//    call commitVertices() afterwards to make the written vertices current.
+	// A: [none]
+	// R: the direct native-order vertex buffer
+	public ByteBuffer getWriteBuffer()  {
+		return vertices;
+	}
+
+	//--Commit Vertices--//
+	// D: make the vertices written into the write buffer current
+	// A: length - number of bytes written from the start of the buffer
+	// R: [none]
+	public void commitVertices(int length)  {
+		this.vertices.position( 0 );                    // Limit Stays at Capacity for Absolute Writes
+		this.numVertices = length / this.vertexSize;    // Save Number of Vertices
+		source = this.vertices;
+		sourceOffset = 0;
+
+		if ( vertexObject != null )                     // IF Buffer Object Storage
+			upload( this.vertices, length );
+	}
+
+	private void upload(ByteBuffer data, int length)  {
+		vertexOffset = vertexObject.upload( data, length );  // Copy Vertices to the GPU
+		bytesUploaded += length;
+	}
+
+	public void resetStats()  {
+		bytesCopied = 0;
+		bytesUploaded = 0;
 	}
 
 	//--Set Indices--//
@@ -98,31 +180,50 @@ public class Vertices {
 		this.indices.put( indices, offset, length );    // Set New Indices
 		this.indices.flip();                            // Flip Index Buffer
 		this.numIndices = length;                       // Save Number of Indices
+
+		if ( indexObject != null )                      // IF Buffer Object Storage
+			indexObject.upload( this.indices, length * INDEX_SIZE );  // Copy Indices to the GPU Once
 	}
 
 	//--Bind--//
 	// D: perform all required binding/state changes before rendering batches.
 	//    USAGE: call once before calling draw() multiple times for this buffer.
+	//    NOTE: nothing is unbound afterwards, the next bind() changes only what differs
 	// A: [none]
 	// R: [none]
 	public void bind()  {
-		// bind vertex position pointer
-		vertices.position( 0 );                         // Set Vertex Buffer to Position
-		GLES20.glVertexAttribPointer(mPositionHandle, positionCnt,
-                GLES20.GL_FLOAT, false, vertexSize, vertices);
-		GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-		// bind texture position pointer
-		vertices.position(positionCnt);  // Set Vertex Buffer to Texture Coords (NOTE: position based on whether color is also specified)
-		GLES20.glVertexAttribPointer(mTextureCoordinateHandle, TEXCOORD_CNT,
-                GLES20.GL_FLOAT, false, vertexSize, vertices);
-		GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-		
-		// bind MVP Matrix index position handle
-		vertices.position(positionCnt + TEXCOORD_CNT);
-		GLES20.glVertexAttribPointer(mMVPIndexHandle, MVP_MATRIX_INDEX_CNT,
-                GLES20.GL_FLOAT, false, vertexSize, vertices);
-		GLES20.glEnableVertexAttribArray(mMVPIndexHandle);
+		if ( vertexObject != null )  {                  // IF Buffer Object Storage
+			vertexObject.bind();                         // Attribute Offsets Refer to the Bound Buffer
+			state.vertexAttribPointer(mPositionHandle, positionCnt,
+					format.positionType, false, vertexSize, vertexOffset + format.positionOffset);
+			state.vertexAttribPointer(mTextureCoordinateHandle, TEXCOORD_CNT,
+					format.texCoordType, true, vertexSize, vertexOffset + format.texCoordOffset);
+			if ( hasMVPIndex )
+				state.vertexAttribPointer(mMVPIndexHandle, MVP_MATRIX_INDEX_CNT,
+						format.indexType, false, vertexSize, vertexOffset + format.indexOffset);
+		}
+		else  {                                         // ELSE Client Storage
+			state.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);  // Client Pointers Need No Buffer Bound
+
+			// bind vertex position pointer
+			source.position( sourceOffset + format.positionOffset );  // Set Vertex Buffer to Position
+			state.vertexAttribPointer(mPositionHandle, positionCnt,
+					format.positionType, false, vertexSize, source);
+
+			// bind texture position pointer (normalized, a no-op for floats)
+			source.position( sourceOffset + format.texCoordOffset );  // Set Vertex Buffer to Texture Coords
+			state.vertexAttribPointer(mTextureCoordinateHandle, TEXCOORD_CNT,
+					format.texCoordType, true, vertexSize, source);
+
+			// bind MVP Matrix index position handle
+			if ( hasMVPIndex )  {
+				source.position( sourceOffset + format.indexOffset );
+				state.vertexAttribPointer(mMVPIndexHandle, MVP_MATRIX_INDEX_CNT,
+						format.indexType, false, vertexSize, source);
+			}
+			source.position( 0 );
+		}
+		state.useVertexAttribArrays( attribMask );      // Enable Used Arrays, Disable Others
 	}
 
 	//--Draw--//
@@ -133,24 +234,31 @@ public class Vertices {
 	//    numVertices - the number of vertices (indices) to draw
 	// R: [none]
 	public void draw(int primitiveType, int offset, int numVertices)  {
-		if (indices != null)  {                       // IF Indices Exist
+		if (indexObject != null)  {                   // IF Indices Exist on the GPU
+			indexObject.bind();
+			//draw indexed from the bound buffer
+			state.drawElements(primitiveType, numVertices, offset * INDEX_SIZE);
+		}
+		else if (indices != null)  {                  // IF Indices Exist
+			state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);  // Client Indices Need No Buffer Bound
 			indices.position(offset);                  // Set Index Buffer to Specified Offset
 			//draw indexed
-			GLES20.glDrawElements(primitiveType, numVertices,
-                    GLES20.GL_UNSIGNED_SHORT, indices);
+			state.drawElements(primitiveType, numVertices, indices);
 		}
 		else  {                                         // ELSE No Indices Exist
 			//draw direct
-			GLES20.glDrawArrays(primitiveType, offset, numVertices);
+			state.drawArrays(primitiveType, offset, numVertices);
 		}
 	}
 
-	//--Unbind--//
-	// D: clear binding states when done rendering batches.
-	//    USAGE: call once before calling draw() multiple times for this buffer.
+	//--Release--//
+	// D: delete the GPU buffers, the vertices can not be drawn afterwards
 	// A: [none]
 	// R: [none]
-	public void unbind()  {
-		GLES20.glDisableVertexAttribArray(mTextureCoordinateHandle);
+	public void release()  {
+		if ( vertexObject != null )
+			vertexObject.release();
+		if ( indexObject != null )
+			indexObject.release();
 	}
 }
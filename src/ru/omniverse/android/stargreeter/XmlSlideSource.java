@@ -0,0 +1,114 @@
+package ru.omniverse.android.stargreeter;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Slides streamed from the deck XML with a pull parser.
+ * <p/>
+ * Creating the source reads the deck only as far as the settings and the beginning, usually the first few
+ * elements. Every pass opens the resource again and parses the next slide only when it is asked for.
+ */
+class XmlSlideSource extends SlideSource {
+
+    private final ResourceLoader mResourceLoader;
+    private final int mResourceId;
+
+    private XmlSlideSource(ResourceLoader resourceLoader, int resourceId, StarGreeterData.PullReader reader) {
+        super(reader.getBeginning(), reader.getSlideTime(), reader.keepLastSlide, reader.getAudioName());
+        mResourceLoader = resourceLoader;
+        mResourceId = resourceId;
+    }
+
+    //--Open--//
+    // D: read the settings and the beginning of a deck
+    // A: resourceLoader - opens the resource for each pass
+    //    resourceId - the raw resource of the deck
+    // R: the source
+    public static XmlSlideSource open(ResourceLoader resourceLoader, int resourceId) {
+        final InputStream inputStream = resourceLoader.openRawResource(resourceId);
+        try {
+            final StarGreeterData.PullReader reader =
+                    new StarGreeterData.PullReader(resourceLoader.loadXmlParser(inputStream));
+            reader.readSettings();
+            return new XmlSlideSource(resourceLoader, resourceId, reader);
+        } catch (XmlPullParserException e) {
+            throw new RuntimeException("Can not parse xml file", e);
+        } catch (IOException e) {
+            throw new RuntimeException("Can not read xml file", e);
+        } finally {
+            close(inputStream);
+        }
+    }
+
+    @Override
+    public Iterator<Slide> iterator() {
+        return new Pass();
+    }
+
+    // One pass over the deck, the resource is closed at its end or when the pass is closed
+    private class Pass implements Iterator<Slide>, Closeable {
+
+        private InputStream mInputStream;
+        private StarGreeterData.PullReader mReader;
+        private Slide mNext = getBeginning();
+
+        @Override
+        public boolean hasNext() {
+            return mNext != null;
+        }
+
+        @Override
+        public Slide next() {
+            if (mNext == null)
+                throw new NoSuchElementException();
+            final Slide slide = mNext;
+            mNext = read();
+            return slide;
+        }
+
+        private Slide read() {
+            try {
+                if (mReader == null) {
+                    mInputStream = mResourceLoader.openRawResource(mResourceId);
+                    mReader = new StarGreeterData.PullReader(mResourceLoader.loadXmlParser(mInputStream));
+                }
+                final Slide slide = mReader.nextSlide();
+                if (slide == null)
+                    close();
+                return slide;
+            } catch (XmlPullParserException e) {
+                close();
+                throw new RuntimeException("Can not parse xml file", e);
+            } catch (IOException e) {
+                close();
+                throw new RuntimeException("Can not read xml file", e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (mInputStream != null)
+                XmlSlideSource.close(mInputStream);
+            mInputStream = null;
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // nothing left to do
+        }
+    }
+}
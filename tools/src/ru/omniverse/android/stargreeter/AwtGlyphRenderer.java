@@ -0,0 +1,66 @@
+package ru.omniverse.android.stargreeter;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * Glyphs measured and drawn with AWT for the DeckCompiler, the counterpart of PaintGlyphRenderer.
+ */
+class AwtGlyphRenderer implements GlyphRenderer {
+
+    private final Font mFont;
+    private final FontRenderContext mContext = new FontRenderContext(null, true, true);
+
+    // font - at the atlas size
+    AwtGlyphRenderer(Font font) {
+        mFont = font;
+    }
+
+    @Override
+    public void getBounds(char c, int[] bounds) {
+        final Rectangle box = mFont.createGlyphVector(mContext, String.valueOf(c)).getPixelBounds(mContext, 0, 0);
+        bounds[0] = box.x;
+        bounds[1] = box.y;
+        bounds[2] = box.x + box.width;
+        bounds[3] = box.y + box.height;
+    }
+
+    @Override
+    public Surface createSurface(final int width, final int height) {
+        // white glyphs on a transparent image, the alpha is the coverage
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        return new Surface() {
+            @Override
+            public void draw(char[] chars, float[] x, float[] y, int count) {
+                final Graphics2D graphics = image.createGraphics();
+                graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                        RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+                        RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+                graphics.setColor(Color.WHITE);
+                for (int i = 0; i < count; i++) {
+                    graphics.drawGlyphVector(mFont.createGlyphVector(mContext, String.valueOf(chars[i])), x[i], y[i]);
+                }
+                graphics.dispose();
+            }
+
+            @Override
+            public void finish(ByteBuffer pixels) {
+                final int[] argb = new int[width];
+                for (int row = 0; row < height; row++) {
+                    image.getRGB(0, row, width, 1, argb, 0, width);
+                    for (int col = 0; col < width; col++) {
+                        pixels.put((byte) (argb[col] >>> 24));
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,147 @@
+package ru.omniverse.android.stargreeter;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.awt.Font;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a deck into the bundle read by DeckBundle. Runs on the build machine from the deck-bundle
+ * Ant target, it is not part of the application.
+ * <p/>
+ * The slides are read once and written with their lines split. Every font of the deck gets its atlas
+ * baked the way the renderer asks for it, with the padding, flags and texts of {@link DeckFonts}: one
+ * atlas per font name and atlas size, holding every character the deck draws with it. The atlases are
+ * rasterized by FontAtlas itself, measured with the metrics of the font file and drawn with AWT, and
+ * written as {@link AtlasEntry} entries under the key the device looks for.
+ * <p/>
+ * Usage: DeckCompiler deck.xml assets-dir output
+ */
+public class DeckCompiler {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage: DeckCompiler deck.xml assets-dir output");
+            System.exit(2);
+        }
+        final File deckFile = new File(args[0]);
+        final File assets = new File(args[1]);
+        final File output = new File(args[2]);
+
+        final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(deckFile);
+        final Element root = document.getDocumentElement();
+        if (!root.getTagName().equals("stargreeter"))
+            throw new IOException(deckFile + " is not a deck");
+
+        // the beginning first, then the slides; the first of repeated elements, as StarGreeterData reads it.
+        // colors are kept as spelled, the device parses them
+        final List<Slide> slides = new ArrayList<Slide>();
+        final List<String> fontColors = new ArrayList<String>();
+        final Element beginning = child(root, "beginning");
+        if (beginning == null)
+            throw new IOException(deckFile + " has no beginning");
+        addSlide(beginning, slides, fontColors);
+        final Element section = child(root, "slides");
+        if (section != null) {
+            for (Node node = section.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node instanceof Element && ((Element) node).getTagName().equals("slide"))
+                    addSlide((Element) node, slides, fontColors);
+            }
+        }
+        final Element settings = child(root, "settings");
+        final int slideTime = Integer.parseInt(text(child(settings, "slide-time")));
+        final boolean keepLastSlide = child(settings, "keep-last-slide") != null;  // XPath boolean: present
+        final String audioName = text(child(settings, "audio-name"));
+
+        // every character drawn with a font name and atlas size, and a slide to tell its font
+        final DeckFonts deckFonts = new DeckFonts();
+        final Map<String, Slide> fontSlides = new LinkedHashMap<String, Slide>();
+        for (Slide slide : slides) {
+            deckFonts.add(slide);
+            if (!fontSlides.containsKey(DeckFonts.fontKey(slide)))
+                fontSlides.put(DeckFonts.fontKey(slide), slide);
+        }
+
+        final Map<String, byte[]> atlases = new LinkedHashMap<String, byte[]>();
+        final Map<String, String> fontHashes = new LinkedHashMap<String, String>();
+        for (Slide slide : fontSlides.values()) {
+            final String name = slide.getFontName();
+            final int size = DeckFonts.atlasSize(slide);
+            final String text = deckFonts.getText(slide);
+            final File fontFile = new File(assets, name + ".ttf");
+            if (!fontHashes.containsKey(name))
+                fontHashes.put(name, AtlasEntry.hash(new FileInputStream(fontFile)));
+            final String key = AtlasEntry.key(fontHashes.get(name), name, size, DeckFonts.FONT_PAD,
+                    DeckFonts.FONT_PAD, text, DeckFonts.FONT_FLAGS);
+
+            final Font font = Font.createFont(Font.TRUETYPE_FONT, fontFile).deriveFont((float) size);
+            final FontAtlas atlas = FontAtlas.rasterize(new AwtGlyphRenderer(font),
+                    TrueTypeMetrics.read(new FileInputStream(fontFile)), name, size, DeckFonts.FONT_PAD,
+                    DeckFonts.FONT_PAD, text, DeckFonts.FONT_FLAGS);
+            if (atlas == null) {
+                System.err.println("Font " + name + " " + size + "px does not fit an atlas, left to the device");
+                continue;
+            }
+            final ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(entry);
+            AtlasEntry.write(out, key, atlas);
+            out.close();
+            atlases.put(key, entry.toByteArray());
+            System.out.println("Baked " + name + " " + size + "px, " + text.length() + " characters, "
+                    + entry.size() / 1024 + " KB");
+        }
+
+        final ByteArrayOutputStream deck = new ByteArrayOutputStream();
+        final DataOutputStream deckOut = new DataOutputStream(deck);
+        DeckFormat.writeDeck(deckOut, slideTime, keepLastSlide, audioName, deckFonts, slides, fontColors);
+        deckOut.close();
+
+        final File parent = output.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Can not create " + parent);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+        try {
+            DeckFormat.writeBundle(out, deck, atlases);
+        } finally {
+            out.close();
+        }
+        System.out.println("Compiled " + slides.size() + " slides and " + atlases.size() + " atlases into "
+                + output + ", " + output.length() / 1024 + " KB");
+    }
+
+    private static void addSlide(Element element, List<Slide> slides, List<String> fontColors) {
+        final Element font = child(element, "font");
+        final int fontSize = Integer.parseInt(font != null ? font.getAttribute("size") : "");
+        slides.add(new Slide(text(child(element, "text")), text(font), fontSize, 0));
+        fontColors.add(font != null ? font.getAttribute("color") : "");
+    }
+
+    // The first child element with a name, or null
+    private static Element child(Element parent, String name) {
+        if (parent == null)
+            return null;
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && ((Element) node).getTagName().equals(name))
+                return (Element) node;
+        }
+        return null;
+    }
+
+    // The XPath string value of an element, empty for none
+    private static String text(Element element) {
+        return element != null ? element.getTextContent() : "";
+    }
+}